@@ -0,0 +1,167 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The progress of a sequence of games, saved every few games so that an
+ * interrupted run resumes where it was: the number of games done, whose seeds
+ * are the first ones of the sequence, their statistics, the size of the
+ * result file and a hash of the configuration. A checkpoint is written to a
+ * temporary file, forced to disk and then renamed over the last one, so that
+ * a crash leaves either of them whole.
+ *
+ * @author Meng
+ */
+public final class Checkpoint {
+
+    public static final int MAGIC = 0x50534350; // "PSCP"
+    public static final int VERSION = 1;
+
+    private final Path path;
+    private final long intervalGames;
+    private final String settings;
+    private long configuration;
+    private long games;
+    private long outputBytes;
+    private ScoreStatistics statistics;
+
+    /**
+     * @param path
+     * @param intervalGames games between saves
+     * @param settings the settings of the player the results depend on, such
+     * as the command line
+     */
+    public Checkpoint(final Path path, final long intervalGames, final String settings) {
+        this.path = path;
+        this.intervalGames = Math.max(intervalGames, 1);
+        this.settings = settings;
+    }
+
+    /**
+     * @param configuration everything the results depend on
+     * @return a 64-bit FNV-1a hash of the configuration
+     */
+    public static long hash(final String configuration) {
+        long h = 0xcbf29ce484222325L;
+        for (final byte b : configuration.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Load the last checkpoint of the configuration. Without one, the
+     * progress is that of a new run.
+     *
+     * @param configuration the games, with the settings
+     * @return whether a checkpoint of the configuration was loaded
+     * @throws IOException if the checkpoint can't be read
+     */
+    public boolean load(final String configuration) throws IOException {
+        this.configuration = hash(settings + '\n' + configuration);
+        return load(true);
+    }
+
+    /**
+     * Load the last checkpoint whatever its configuration, to read the
+     * progress of a run made by another process.
+     *
+     * @return whether there was a checkpoint
+     * @throws IOException if the checkpoint can't be read
+     */
+    public boolean load() throws IOException {
+        return load(false);
+    }
+
+    private boolean load(final boolean checked) throws IOException {
+        games = 0;
+        outputBytes = 0;
+        statistics = new ScoreStatistics();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint of this version: " + path);
+            }
+            final long c = in.readLong();
+            if (!checked) {
+                configuration = c;
+            } else if (c != configuration) {
+                System.out.println("Checkpoint of another configuration ignored: " + path);
+                return false;
+            }
+            games = in.readLong();
+            outputBytes = in.readLong();
+            statistics = ScoreStatistics.read(in);
+            return true;
+        } catch (final NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * @return the size of the result file when the checkpoint was saved
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * @return the statistics of the games done, which the run goes on adding
+     * to
+     */
+    public ScoreStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @param games
+     * @return whether the progress is to be saved after the given games
+     */
+    public boolean isDue(final long games) {
+        return games % intervalGames == 0;
+    }
+
+    /**
+     * Save the progress atomically.
+     *
+     * @param games the games done
+     * @param outputBytes the size of the flushed result file, 0 if none
+     * @throws IOException
+     */
+    public void save(final long games, final long outputBytes) throws IOException {
+        this.games = games;
+        this.outputBytes = outputBytes;
+        final Path parent = path.toAbsolutePath().getParent();
+        final Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(configuration);
+                out.writeLong(games);
+                out.writeLong(outputBytes);
+                statistics.write(out);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -5,9 +5,25 @@
  */
 public final class MengYaXiPlayer extends mengyaxi.pokersquares.PokerSquaresPlayer implements PokerSquaresPlayer {
 
+    public MengYaXiPlayer() {
+    }
+
+    /**
+     * @param processors the most processors the searches use
+     */
+    public MengYaXiPlayer(final int processors) {
+        super(processors);
+    }
+
     @Override
     public void setPointSystem(final PokerSquaresPointSystem system, final long millis) {
         // the American point system is guaranteed.
+        trainLineValues(Math.min(lineValueMillis, millis / 4));
+        warmUp(Math.min(warmUpMillis, millis / 4)); // on the pool of workers calibrate measures
+        calibrate(Math.min(calibrationMillis, millis / 4));
+        if (rolloutHorizon == AUTO_HORIZON) {
+            calibrateHorizons(Math.min(horizonCalibrationMillis, millis / 8));
+        }
     }
 
     @Override
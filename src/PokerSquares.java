@@ -1,10 +1,22 @@
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import javax.management.JMException;
+import mengyaxi.pokersquares.StrategyProfile;
 
 /* A parameterized version of the solitaire game "Poker Squares" with variable point systems.
  * Author: Todd W. Neller
@@ -48,6 +60,8 @@ public class PokerSquares {
     public static final int SIZE = 5; // square grid size
     public static final long POINT_SYSTEM_MILLIS = 300000L; // EAAI-2016 contest maximum milliseconds for processing score table
     public static final long GAME_MILLIS = 30000L; // EAAI-2016 contest maximum milliseconds per game
+    public static final long PROGRESS_GAMES = 10000L; // games between progress lines of playStatistics
+    public static final long CHECKPOINT_GAMES = 100L; // games between checkpoints of the command line and tournaments
 
     private PokerSquaresPlayer player; // current player
     private PokerSquaresPointSystem system; // current point system
@@ -226,33 +240,126 @@ public class PokerSquares {
             System.out.printf("%d games starting at seed %d\nPoint system:\n%s\n", numGames, startSeed, system);
         }
         int[] scores = new int[numGames];
-        double scoreMean = 0;
-        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        ScoreStatistics statistics = new ScoreStatistics();
         for (int i = 0; i < numGames; i++) {
             setSeed(startSeed + i);
             int score = play();
             scores[i] = score;
-            scoreMean += score;
-            if (scores[i] < min) {
-                min = scores[i];
+            statistics.add(score);
+            System.out.println(String.format("Score of play %d: %d", i + 1, score));
+            if (verbose) {
+                System.out.println();
             }
-            if (scores[i] > max) {
-                max = scores[i];
+        }
+        System.out.println(statistics.getSummary());
+        return scores;
+    }
+
+    /**
+     * Play a sequence of games, aggregating their statistics in constant
+     * memory. Each game is printed unless a writer takes the results, in which
+     * case the progress is printed every PROGRESS_GAMES games.
+     *
+     * @param numGames number of games to play
+     * @param startSeed seed of first game. Successive games use successive
+     * seeds
+     * @param verbose whether or not to provide verbose output of game play
+     * @param writer where the result of every game is streamed, null for none
+     * @return the statistics of the games
+     * @throws IOException if the results can't be written
+     */
+    public ScoreStatistics playStatistics(long numGames, long startSeed, boolean verbose, ScoreWriter writer)
+        throws IOException {
+        return playStatistics(numGames, startSeed, verbose, writer, null);
+    }
+
+    /**
+     * Play a sequence of games as above, resuming from the last checkpoint of
+     * the same configuration, if any, and saving one every few games and at
+     * the end. The games are those of the seeds following the ones done, and
+     * the writer goes on from its size at the checkpoint, so a resumed run
+     * ends as an uninterrupted one, provided that the player plays the same
+     * moves for the same deals.
+     *
+     * @param numGames number of games to play
+     * @param startSeed seed of first game. Successive games use successive
+     * seeds
+     * @param verbose whether or not to provide verbose output of game play
+     * @param writer where the result of every game is streamed, null for none
+     * @param checkpoint where the progress is saved, null for none
+     * @return the statistics of the games
+     * @throws IOException if the results or the checkpoint can't be written
+     */
+    public ScoreStatistics playStatistics(long numGames, long startSeed, boolean verbose, ScoreWriter writer,
+        Checkpoint checkpoint) throws IOException {
+        this.verbose = verbose;
+        if (verbose) {
+            System.out.printf("%d games starting at seed %d\nPoint system:\n%s\n", numGames, startSeed, system);
+        }
+        ScoreStatistics statistics = new ScoreStatistics();
+        long done = 0;
+        if (checkpoint != null) {
+            if (checkpoint.load(configurationOf(player, system, numGames, startSeed))) {
+                done = checkpoint.getGames();
+                System.out.printf("Resuming after %d games, seeds %d to %d\n", done, startSeed, startSeed + done - 1);
+            }
+            statistics = checkpoint.getStatistics();
+            if (writer != null) {
+                writer.start(checkpoint.getOutputBytes());
+            }
+        }
+        for (long i = done; i < numGames; i++) {
+            setSeed(startSeed + i);
+            int score = play();
+            statistics.add(score);
+            int[] handIds = isGridFull() ? PokerSquaresPointSystem.getHandIds(grid) : null;
+            if (handIds != null) {
+                statistics.addHands(handIds);
+            }
+            if (writer != null) {
+                writer.write(i + 1, startSeed + i, score, handIds, statistics);
+                if ((i + 1) % PROGRESS_GAMES == 0) {
+                    writer.flush();
+                    System.out.printf("Games: %d, mean %s\n", i + 1, statistics.getMeanWithConfidence95());
+                }
+            } else {
+                System.out.println(String.format("Score of play %d: %d", i + 1, score));
             }
-            System.out.println(String.format("Score of play %d: %d", i + 1, score));
             if (verbose) {
                 System.out.println();
             }
+            if (checkpoint != null && checkpoint.isDue(i + 1) && i + 1 < numGames) {
+                checkpoint.save(i + 1, writer != null ? writer.size() : 0);
+            }
         }
-        scoreMean /= numGames;
-        double scoreStdDev = 0;
-        for (int i = 0; i < numGames; i++) {
-            double diff = scores[i] - scoreMean;
-            scoreStdDev += diff * diff;
+        if (writer != null) {
+            writer.flush();
         }
-        scoreStdDev = Math.sqrt(scoreStdDev / numGames);
-        System.out.printf("Score Mean: %f, Standard Deviation: %f, Minimum: %d, Maximum: %d\n", scoreMean, scoreStdDev, min, max);
-        return scores;
+        if (checkpoint != null) {
+            checkpoint.save(numGames, writer != null ? writer.size() : 0);
+        }
+        System.out.print(statistics);
+        return statistics;
+    }
+
+    /**
+     * @return what the results of a sequence of games depend on, besides the
+     * settings of the player
+     */
+    private static String configurationOf(PokerSquaresPlayer player, PokerSquaresPointSystem system, long numGames,
+        long startSeed) {
+        return String.format("%s\n%s\n%d games from seed %d", player.getName(), system, numGames, startSeed);
+    }
+
+    private boolean isGridFull() {
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                if (grid[row][col] == null) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     /**
@@ -282,47 +389,178 @@ public class PokerSquares {
         ArrayList<PokerSquaresPlayer> players,
         ArrayList<PokerSquaresPointSystem> systems,
         int gamesPerSystem, long startSeed) {
+        try {
+            return playTournament(players, systems, gamesPerSystem, startSeed, null);
+        } catch (IOException e) { // not without checkpoints
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hold a Poker Squares tournament as above, checkpointing the sequence of
+     * every player with every point system in the given directory, so that an
+     * interrupted tournament resumes where it was. The point system isn't
+     * even given to a player whose sequence is already done.
+     *
+     * @param players Poker Squares players taking part in the tournament
+     * @param systems Poker Squares point systems used to evaluate players in
+     * the tournament
+     * @param gamesPerSystem the number of games that will be played by each
+     * player with each point system
+     * @param startSeed the start seed for the pseudorandom number generator
+     * that generates card deals
+     * @param checkpoints the directory of the checkpoints, null for none
+     * @return the sum of the tournament scores for each of the given players
+     * @throws IOException if a checkpoint can't be read or written
+     */
+    public static double[] playTournament(
+        ArrayList<PokerSquaresPlayer> players,
+        ArrayList<PokerSquaresPointSystem> systems,
+        int gamesPerSystem, long startSeed, Path checkpoints) throws IOException {
         double[] tournamentScores = new double[players.size()];
-        for (PokerSquaresPointSystem system : systems) { // for each point system
+        String[] names = new String[players.size()];
+        for (int i = 0; i < players.size(); i++) {
+            names[i] = players.get(i).getName();
+        }
+        for (int s = 0; s < systems.size(); s++) { // for each point system
+            PokerSquaresPointSystem system = systems.get(s);
             System.out.println("Point System:\n" + system);
             int[] totalScores = new int[players.size()];
             for (int i = 0; i < players.size(); i++) { // for each player
                 PokerSquaresPlayer player = players.get(i);
                 System.out.printf("Player: \"%s\"\n", player.getName());
-                int[] scores = new PokerSquares(player, system).playSequence(gamesPerSystem, startSeed, false);
-                for (int score : scores) {
-                    totalScores[i] += score;
+                if (checkpoints == null) {
+                    int[] scores = new PokerSquares(player, system).playSequence(gamesPerSystem, startSeed, false);
+                    for (int score : scores) {
+                        totalScores[i] += score;
+                    }
+                } else {
+                    Checkpoint checkpoint = new Checkpoint(checkpoints.resolve(String.format("tournament-%d-%d.ckpt", s, i)),
+                        CHECKPOINT_GAMES, "");
+                    ScoreStatistics statistics;
+                    if (checkpoint.load(configurationOf(player, system, gamesPerSystem, startSeed))
+                        && checkpoint.getGames() == gamesPerSystem) {
+                        statistics = checkpoint.getStatistics();
+                        System.out.print(statistics);
+                    } else {
+                        statistics = new PokerSquares(player, system).playStatistics(gamesPerSystem, startSeed, false, null,
+                            checkpoint);
+                    }
+                    totalScores[i] = (int) statistics.getSum();
                 }
                 System.out.printf("Player \"%s\" total score: %d\n", player.getName(), totalScores[i]);
             }
-            int maxTotal = Integer.MIN_VALUE;
-            int minTotal = Integer.MAX_VALUE;
-            for (int totalScore : totalScores) {
-                if (totalScore > maxTotal) {
-                    maxTotal = totalScore;
-                }
-                if (totalScore < minTotal) {
-                    minTotal = totalScore;
+            addNormalizedScores(names, totalScores, tournamentScores);
+        }
+        printTournamentScores(names, tournamentScores);
+        return tournamentScores;
+    }
+
+    /**
+     * Hold a Poker Squares tournament as above, with the players of the point
+     * systems playing at the same time. Every player with every point system
+     * is a task: a new player made by the factory is given the point system,
+     * then plays all the games in the order of the seeds. At most the given
+     * number of tasks run at a time, so that while some players process a
+     * point system, others play, and every player is made to use at most its
+     * share of the processors. The totals don't depend on the order in which
+     * the tasks end, so the tournament scores are those of the serial
+     * tournament for players that play the same moves for the same deals
+     * whatever the time, such as MengYaXiPlayer in deterministic mode.
+     * Players that play to a time budget search less on a share of the
+     * processors than on all of them, so their scores differ from the serial
+     * tournament, and are lower with more players at a time than processors.
+     *
+     * @param players factories of the Poker Squares players taking part in
+     * the tournament, given the processors a player may use
+     * @param systems Poker Squares point systems used to evaluate players in
+     * the tournament
+     * @param gamesPerSystem the number of games that will be played by each
+     * player with each point system
+     * @param startSeed the start seed for the pseudorandom number generator
+     * that generates card deals
+     * @param threads the players playing at a time
+     * @return the sum of the tournament scores for each of the given players
+     * @throws InterruptedException
+     */
+    public static double[] playTournament(
+        List<? extends IntFunction<? extends PokerSquaresPlayer>> players,
+        List<PokerSquaresPointSystem> systems,
+        int gamesPerSystem, long startSeed, int threads) throws InterruptedException {
+        int tasks = Math.max(Math.min(threads, players.size() * systems.size()), 1);
+        int processors = Math.max(Runtime.getRuntime().availableProcessors() / tasks, 1);
+        String[] names = new String[players.size()];
+        List<Future<Integer>> totals = new ArrayList<Future<Integer>>();
+        ExecutorService executor = Executors.newFixedThreadPool(tasks);
+        try {
+            for (int s = 0; s < systems.size(); s++) { // for each point system
+                for (int i = 0; i < players.size(); i++) { // for each player
+                    final PokerSquaresPointSystem system = systems.get(s);
+                    final IntFunction<? extends PokerSquaresPlayer> factory = players.get(i);
+                    final int player = i;
+                    final int index = s;
+                    totals.add(executor.submit(() -> {
+                        PokerSquares game = new PokerSquares(factory.apply(processors), system);
+                        game.verbose = false;
+                        names[player] = game.player.getName();
+                        int total = 0;
+                        for (int g = 0; g < gamesPerSystem; g++) {
+                            game.setSeed(startSeed + g);
+                            total += game.play();
+                        }
+                        System.out.printf("Player \"%s\" done with point system %d: %d\n", names[player], index + 1, total);
+                        return total;
+                    }));
                 }
             }
-            for (int i = 0; i < players.size(); i++) { // for each player
-                double normalizedTotal = (double) (totalScores[i] - minTotal) / (maxTotal - minTotal);
-                System.out.println("Player \"" + players.get(i).getName() + "\" normalized score: " + normalizedTotal);
-                tournamentScores[i] += normalizedTotal;
+            double[] tournamentScores = new double[players.size()];
+            for (int s = 0; s < systems.size(); s++) { // for each point system
+                int[] totalScores = new int[players.size()];
+                for (int i = 0; i < players.size(); i++) { // for each player
+                    totalScores[i] = totals.get(s * players.size() + i).get();
+                }
+                System.out.println("Point System:\n" + systems.get(s));
+                for (int i = 0; i < players.size(); i++) {
+                    System.out.printf("Player \"%s\" total score: %d\n", names[i], totalScores[i]);
+                }
+                addNormalizedScores(names, totalScores, tournamentScores);
             }
+            printTournamentScores(names, tournamentScores);
+            return tournamentScores;
+        } catch (ExecutionException e) { // play catches the exceptions of the players
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
-        double max = Double.NEGATIVE_INFINITY;
-        for (double score : tournamentScores) {
-            if (score > max) {
-                max = score;
+    }
+
+    /**
+     * Scale the total scores of a point system linearly from 0.0 for the
+     * minimum to 1.0 for the maximum, and add them to the tournament scores.
+     */
+    private static void addNormalizedScores(String[] names, int[] totalScores, double[] tournamentScores) {
+        int maxTotal = Integer.MIN_VALUE;
+        int minTotal = Integer.MAX_VALUE;
+        for (int totalScore : totalScores) {
+            if (totalScore > maxTotal) {
+                maxTotal = totalScore;
+            }
+            if (totalScore < minTotal) {
+                minTotal = totalScore;
             }
         }
-        System.out.printf("%20s %s\n", "Player", "Tournament Score");
-        for (int i = 0; i < players.size(); i++) { // for each player
-            System.out.printf("%20s %f\n", players.get(i).getName(), tournamentScores[i]);
+        for (int i = 0; i < names.length; i++) { // for each player
+            double normalizedTotal = (double) (totalScores[i] - minTotal) / (maxTotal - minTotal);
+            System.out.println("Player \"" + names[i] + "\" normalized score: " + normalizedTotal);
+            tournamentScores[i] += normalizedTotal;
         }
+    }
 
-        return tournamentScores;
+    private static void printTournamentScores(String[] names, double[] tournamentScores) {
+        System.out.printf("%20s %s\n", "Player", "Tournament Score");
+        for (int i = 0; i < names.length; i++) { // for each player
+            System.out.printf("%20s %f\n", names[i], tournamentScores[i]);
+        }
     }
 
     /**
@@ -341,17 +579,63 @@ public class PokerSquares {
      * @param args (not used)
      */
     public static void main(final String[] args) {
-        final MengYaXiPlayer player = new MengYaXiPlayer();
+        final List<Consumer<MengYaXiPlayer>> playerSettings = new ArrayList<>(); // for every player made
 
         int times = 1;
         long seed = System.currentTimeMillis();
         int argn = 0;
         boolean interactive = false;
+        boolean metrics = false;
+        int tournamentThreads = 0;
+        String output = null;
+        String checkpoint = null;
+        Long searchSeed = null;
         for (final String arg : args) {
+            final String value = arg.length() > 3 ? arg.substring(3) : "";
             if (arg.equals("-v")) {
-                player.verbose = true;
+                playerSettings.add(p -> p.verbose = true);
             } else if (arg.equals("-s")) {
-                player.parallel = false;
+                playerSettings.add(p -> p.parallel = false);
+            } else if (arg.equals("-c")) { // cold start
+                playerSettings.add(p -> {
+                    p.warmUpMillis = 0;
+                    p.calibrationMillis = 0;
+                });
+            } else if (arg.equals("-t")) { // tree search
+                playerSettings.add(p -> p.treeSearch = true);
+            } else if (arg.equals("-h")) { // hand-tuned line values, the default
+                playerSettings.add(p -> p.learnedLineValues = false);
+            } else if (arg.equals("-p")) { // rollout horizons chosen by game phase
+                playerSettings.add(p -> p.rolloutHorizon = MengYaXiPlayer.AUTO_HORIZON);
+            } else if (arg.equals("-l")) { // learned line values
+                playerSettings.add(p -> p.learnedLineValues = true);
+            } else if (arg.equals("-m")) { // metrics through JMX
+                metrics = true;
+            } else if (arg.startsWith("-b=")) { // opening book
+                playerSettings.add(p -> p.openingBookFile = value);
+            } else if (arg.startsWith("-o=")) { // results as CSV, or JSON Lines if the file ends with .jsonl
+                output = value;
+            } else if (arg.startsWith("-k=")) { // checkpoint, resumed if of the same command line
+                checkpoint = value;
+            } else if (arg.startsWith("-d=")) { // decision trace
+                playerSettings.add(p -> p.traceFile = value);
+            } else if (arg.startsWith("-w=")) { // fixed work, rollouts per second of quota
+                playerSettings.add(p -> p.fixedRolloutsPerSecond = Double.parseDouble(value));
+            } else if (arg.startsWith("-r=")) { // reproducible moves with the given shuffles per move
+                playerSettings.add(p -> {
+                    p.deterministic = true;
+                    p.shufflesPerMove = Integer.parseInt(value);
+                });
+            } else if (arg.startsWith("-g=")) { // seed of the deterministic mode, the start seed by default
+                searchSeed = Long.parseUnsignedLong(value);
+            } else if (arg.startsWith("-x=")) { // end of the game solved exactly from the given empty cells
+                playerSettings.add(p -> p.exactEmptyCells = Integer.parseInt(value));
+            } else if (arg.startsWith("-e=")) { // shallow expectimax below the given milliseconds left
+                playerSettings.add(p -> p.shallowMillis = Long.parseLong(value));
+            } else if (arg.startsWith("-n=")) { // tournament with the given players at a time
+                // Each plays on its share of the processors, so players bound by time score lower than in the
+                // serial tournament; only deterministic ones, as with -r, score the same.
+                tournamentThreads = Integer.parseInt(value);
             } else if (arg.equals("-i")) {
                 interactive = true;
             } else if (argn == 0) {
@@ -362,13 +646,59 @@ public class PokerSquares {
                 ++argn;
             }
         }
+        final long playerSeed = searchSeed != null ? searchSeed : seed;
+        playerSettings.add(p -> p.seed = playerSeed);
 
+        if (tournamentThreads > 0) { // against the sample players on the contest point systems
+            final List<IntFunction<PokerSquaresPlayer>> players = new ArrayList<>();
+            players.add(processors -> {
+                final MengYaXiPlayer player = new MengYaXiPlayer(processors);
+                playerSettings.forEach(setting -> setting.accept(player));
+                return player;
+            });
+            players.add(processors -> new GreedyMCPlayer());
+            players.add(processors -> new RandomPlayer());
+            try {
+                playTournament(players, Arrays.asList(PokerSquaresPointSystem.getAmericanPointSystem(),
+                    PokerSquaresPointSystem.getBritishPointSystem(), PokerSquaresPointSystem.getAmeritishPointSystem()),
+                    times, seed, tournamentThreads);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        final MengYaXiPlayer player = new MengYaXiPlayer();
+        playerSettings.forEach(setting -> setting.accept(player));
+        if (metrics) {
+            try {
+                player.getMetrics().register(player.getName());
+            } catch (final JMException e) {
+                e.printStackTrace();
+            }
+        }
         final PokerSquares game = new PokerSquares(player, PokerSquaresPointSystem.getAmericanPointSystem());
         if (interactive) {
             game.setSeed(times + seed);
             game.play(new Scanner(System.in));
         } else {
-            game.playSequence(times, seed, player.verbose);
+            final StringBuilder settings = new StringBuilder();
+            for (final String arg : args) {
+                if (!arg.startsWith("-k=")) {
+                    settings.append(arg).append(' ');
+                }
+            }
+            try (ScoreWriter writer = output != null ? new ScoreWriter(Paths.get(output)) : null) {
+                game.playStatistics(times, seed, player.verbose, writer,
+                    checkpoint != null ? new Checkpoint(Paths.get(checkpoint), CHECKPOINT_GAMES, settings.toString()) : null);
+            } catch (final IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (metrics) {
+            System.out.print(player.getMetrics());
+        }
+        if (StrategyProfile.ENABLED) {
+            System.out.print(StrategyProfile.report());
         }
     }
 }
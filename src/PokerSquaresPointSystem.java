@@ -112,6 +112,32 @@ public class PokerSquaresPointSystem {
         return handScores;
     }
 
+    /**
+     * Get an int array with the Poker hand classification identification
+     * numbers of rows 0 through 4 followed by columns 0 through 4.
+     *
+     * @param grid 2D Card array representing play grid
+     * @return an int array with the hand classification identification
+     * numbers of rows 0 through 4 followed by columns 0 through 4.
+     */
+    public static int[] getHandIds(Card[][] grid) {
+        int[] handIds = new int[2 * SIZE];
+        Card[] hand = new Card[SIZE];
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                hand[col] = grid[row][col];
+            }
+            handIds[row] = PokerHand.getPokerHandId(hand);
+        }
+        for (int col = 0; col < SIZE; col++) {
+            for (int row = 0; row < SIZE; row++) {
+                hand[row] = grid[row][col];
+            }
+            handIds[SIZE + col] = PokerHand.getPokerHandId(hand);
+        }
+        return handIds;
+    }
+
     /**
      * Set the seed of the game pseudorandom number generator.
      *
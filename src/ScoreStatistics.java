@@ -0,0 +1,227 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Statistics of game scores, aggregated online in constant memory: Welford's
+ * mean and variance, a histogram of fixed buckets and the frequencies of the
+ * hand categories of the rows and columns.
+ *
+ * @author Meng
+ */
+public final class ScoreStatistics {
+
+    public static final int BUCKET_WIDTH = 10;
+    private static final int MIN_SCORE = -1280; // ten hands of the lowest score
+    private static final int MAX_SCORE = 1270; // ten hands of the highest score
+    private static final double Z95 = 1.959964;
+
+    private long count = 0;
+    private long sum = 0;
+    private double mean = 0.0;
+    private double m2 = 0.0; // sum of the squared differences from the mean
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private final long[] buckets = new long[(MAX_SCORE - MIN_SCORE) / BUCKET_WIDTH + 1];
+    private final long[] hands = new long[PokerHand.NUM_HANDS];
+    private long handGames = 0;
+
+    /**
+     * @param score
+     */
+    public void add(final int score) {
+        ++count;
+        sum += score;
+        final double delta = score - mean;
+        mean += delta / count;
+        m2 += delta * (score - mean);
+        min = Math.min(min, score);
+        max = Math.max(max, score);
+        final int s = Math.max(MIN_SCORE, Math.min(MAX_SCORE, score));
+        ++buckets[(s - MIN_SCORE) / BUCKET_WIDTH];
+    }
+
+    /**
+     * @param handIds the categories of the hands of a finished game
+     */
+    public void addHands(final int[] handIds) {
+        for (final int id : handIds) {
+            ++hands[id];
+        }
+        ++handGames;
+    }
+
+    /**
+     * Add the scores of other statistics, as if they had been added one by
+     * one, up to rounding: the means and variances are combined with the
+     * formula of Chan et al.
+     *
+     * @param other
+     */
+    public void merge(final ScoreStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        final long n = count + other.count;
+        final double delta = other.mean - mean;
+        mean += delta * other.count / n;
+        m2 += other.m2 + delta * delta * count / n * other.count;
+        count = n;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        for (int i = 0; i < buckets.length; ++i) {
+            buckets[i] += other.buckets[i];
+        }
+        for (int i = 0; i < hands.length; ++i) {
+            hands[i] += other.hands[i];
+        }
+        handGames += other.handGames;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the standard deviation of the scores, as playSequence has always
+     * reported it
+     */
+    public double getStandardDeviation() {
+        return count > 0 ? Math.sqrt(m2 / count) : 0.0;
+    }
+
+    /**
+     * @return whether there are the two scores a confidence interval needs
+     */
+    public boolean hasConfidence95() {
+        return count > 1;
+    }
+
+    /**
+     * @return the half width of the 95% confidence interval of the mean, NaN
+     * without two scores
+     */
+    public double getConfidence95() {
+        return hasConfidence95() ? Z95 * Math.sqrt(m2 / (count - 1) / count) : Double.NaN;
+    }
+
+    /**
+     * @return the mean and the half width of its 95% confidence interval, the
+     * half width being n/a without two scores
+     */
+    public String getMeanWithConfidence95() {
+        return String.format("%.3f +- %s", mean, hasConfidence95() ? String.format("%.3f", getConfidence95()) : "n/a");
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @param score
+     * @return the number of scores in the bucket of the score
+     */
+    public long getBucket(final int score) {
+        final int s = Math.max(MIN_SCORE, Math.min(MAX_SCORE, score));
+        return buckets[(s - MIN_SCORE) / BUCKET_WIDTH];
+    }
+
+    /**
+     * @param handId
+     * @return the mean number of hands of the category in a game
+     */
+    public double getHandFrequency(final int handId) {
+        return handGames > 0 ? (double) hands[handId] / handGames : 0.0;
+    }
+
+    /**
+     * Write the exact state of the statistics, for a checkpoint.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(final DataOutput out) throws IOException {
+        out.writeLong(count);
+        out.writeLong(sum);
+        out.writeDouble(mean);
+        out.writeDouble(m2);
+        out.writeInt(min);
+        out.writeInt(max);
+        for (final long b : buckets) {
+            out.writeLong(b);
+        }
+        for (final long h : hands) {
+            out.writeLong(h);
+        }
+        out.writeLong(handGames);
+    }
+
+    /**
+     * @param in
+     * @return the statistics written by write
+     * @throws IOException
+     */
+    public static ScoreStatistics read(final DataInput in) throws IOException {
+        final ScoreStatistics s = new ScoreStatistics();
+        s.count = in.readLong();
+        s.sum = in.readLong();
+        s.mean = in.readDouble();
+        s.m2 = in.readDouble();
+        s.min = in.readInt();
+        s.max = in.readInt();
+        for (int i = 0; i < s.buckets.length; ++i) {
+            s.buckets[i] = in.readLong();
+        }
+        for (int i = 0; i < s.hands.length; ++i) {
+            s.hands[i] = in.readLong();
+        }
+        s.handGames = in.readLong();
+        return s;
+    }
+
+    /**
+     * @return the summary line of playSequence
+     */
+    public String getSummary() {
+        return String.format("Score Mean: %f, Standard Deviation: %f, Minimum: %d, Maximum: %d",
+            mean, getStandardDeviation(), min, max);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(getSummary()).append('\n');
+        sb.append(String.format("Games: %d, 95%% confidence interval of the mean: %s\n", count, getMeanWithConfidence95()));
+        if (handGames > 0) {
+            sb.append("Hands per game:");
+            for (final PokerHand hand : PokerHand.values()) {
+                sb.append(String.format(" %s %.3f,", hand.name, getHandFrequency(hand.id)));
+            }
+            sb.setLength(sb.length() - 1);
+            sb.append('\n');
+        }
+        if (count > 0) {
+            sb.append("Scores:\n");
+            for (int i = 0; i < buckets.length; ++i) {
+                if (buckets[i] > 0) {
+                    final int low = MIN_SCORE + i * BUCKET_WIDTH;
+                    sb.append(String.format("%5d-%-5d %10d %6.2f%%\n", low, low + BUCKET_WIDTH - 1, buckets[i],
+                        100.0 * buckets[i] / count));
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the result of every game to a CSV file, or to a JSON Lines file if
+ * its name ends with .jsonl, with the running mean and 95% confidence interval
+ * of the scores, left empty, or null, until there are two. A run resumed
+ * from a checkpoint truncates the file to its size at the checkpoint and goes
+ * on writing there.
+ *
+ * @author Meng
+ */
+public final class ScoreWriter implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final PokerHand[] HANDS = PokerHand.values();
+
+    private final FileChannel channel;
+    private final BufferedWriter out;
+    private final boolean json;
+    private final StringBuilder line = new StringBuilder();
+    private boolean started = false;
+
+    /**
+     * @param path overwritten, unless the run is resumed
+     * @throws IOException
+     */
+    public ScoreWriter(final Path path) throws IOException {
+        json = path.getFileName().toString().endsWith(".jsonl");
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), BUFFER_SIZE);
+    }
+
+    /**
+     * Truncate the file to the given size and write from there, with the
+     * header if the size is 0. Without a call, the first write starts the
+     * file over.
+     *
+     * @param bytes the size of the file at a checkpoint
+     * @throws IOException
+     */
+    public void start(final long bytes) throws IOException {
+        channel.truncate(bytes);
+        channel.position(bytes);
+        started = true;
+        if (bytes == 0 && !json) {
+            out.write("game,seed,score,mean,ci95");
+            for (int i = 0; i < PokerSquares.SIZE; ++i) {
+                out.write(",row" + (i + 1));
+            }
+            for (int i = 0; i < PokerSquares.SIZE; ++i) {
+                out.write(",col" + (i + 1));
+            }
+            out.newLine();
+        }
+    }
+
+    /**
+     * @param game from 1
+     * @param seed
+     * @param score
+     * @param handIds the hand categories of the rows then the columns, null if
+     * the game wasn't finished
+     * @param statistics including the game
+     * @throws IOException
+     */
+    public void write(final long game, final long seed, final int score, final int[] handIds,
+        final ScoreStatistics statistics) throws IOException {
+        if (!started) {
+            start(0);
+        }
+        final String ci = statistics.hasConfidence95() ? Double.toString(statistics.getConfidence95()) : null;
+        line.setLength(0);
+        if (json) {
+            line.append("{\"game\":").append(game).append(",\"seed\":").append(seed).append(",\"score\":").append(score)
+                .append(",\"mean\":").append(statistics.getMean()).append(",\"ci95\":").append(ci == null ? "null" : ci).append(",\"hands\":");
+            if (handIds == null) {
+                line.append("null");
+            } else {
+                line.append('[');
+                for (int i = 0; i < handIds.length; ++i) {
+                    line.append(i > 0 ? ",\"" : "\"").append(HANDS[handIds[i]].name).append('"');
+                }
+                line.append(']');
+            }
+            line.append('}');
+        } else {
+            line.append(game).append(',').append(seed).append(',').append(score).append(',')
+                .append(statistics.getMean()).append(',').append(ci == null ? "" : ci);
+            for (int i = 0; i < 2 * PokerSquares.SIZE; ++i) {
+                line.append(',');
+                if (handIds != null) {
+                    line.append(HANDS[handIds[i]].name);
+                }
+            }
+        }
+        out.append(line);
+        out.newLine();
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * @return the size of the file, once flushed and forced to disk
+     * @throws IOException
+     */
+    public long size() throws IOException {
+        if (!started) {
+            start(0);
+        }
+        out.flush();
+        channel.force(false);
+        return channel.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
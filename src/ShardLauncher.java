@@ -0,0 +1,254 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Splits a range of seeds into shards played by child JVMs running
+ * PokerSquares, a few at a time, and merges their statistics into one report.
+ * Every shard streams its results to a file and checkpoints its progress in
+ * the directory of the run; a shard whose process fails is given to the next
+ * free process, which resumes it from its checkpoint. Running the launcher
+ * again in the same directory only plays the games not done yet. The shards
+ * share the seed of the deterministic mode, so in that mode the report is the
+ * one of a single process, up to the rounding of the merge. A prefix
+ * command, such as ssh to a host sharing the directory, runs the shards
+ * remotely.
+ *
+ * Usage: ShardLauncher [-p=processes] [-n=shards] [-a=attempts] [-e=directory]
+ * [-j=jvm option]... [-x=prefix command] games seed [PokerSquares options]...
+ *
+ * @author Meng
+ */
+public final class ShardLauncher {
+
+    private static final long POLL_MILLIS = 200;
+
+    private final int processes;
+    private final int maxAttempts;
+    private final Path directory;
+    private final List<String> command = new ArrayList<>();
+    private final List<String> options;
+    private final boolean hasSearchSeed;
+    private final List<Shard> shards = new ArrayList<>();
+    private long startSeed;
+
+    /**
+     * A range of seeds played by one process at a time.
+     */
+    private static final class Shard {
+
+        final int index;
+        final long startSeed;
+        final long games;
+        int attempts = 0;
+        Process process = null;
+        ScoreStatistics statistics = null;
+
+        Shard(final int index, final long startSeed, final long games) {
+            this.index = index;
+            this.startSeed = startSeed;
+            this.games = games;
+        }
+    }
+
+    /**
+     * @param processes the shards played at the same time
+     * @param maxAttempts the processes a shard is given before the run fails
+     * @param directory of the results, checkpoints and logs of the shards
+     * @param jvmOptions of the child JVMs
+     * @param prefix the command the child JVMs are run through, empty for none
+     * @param options of PokerSquares, besides the games, seed, results and
+     * checkpoint
+     */
+    public ShardLauncher(final int processes, final int maxAttempts, final Path directory, final List<String> jvmOptions,
+        final List<String> prefix, final List<String> options) {
+        this.processes = Math.max(processes, 1);
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.directory = directory;
+        this.options = options;
+        hasSearchSeed = options.stream().anyMatch(o -> o.startsWith("-g="));
+        command.addAll(prefix);
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(PokerSquares.class.getName());
+    }
+
+    /**
+     * Play the games of the given seeds in the given number of shards of
+     * consecutive seeds.
+     *
+     * @param numGames
+     * @param startSeed
+     * @param numShards
+     * @return the merged statistics, null if a shard failed every attempt
+     * @throws IOException if a process can't be started or a checkpoint read
+     * @throws InterruptedException
+     */
+    public ScoreStatistics run(final long numGames, final long startSeed, final int numShards)
+        throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+        this.startSeed = startSeed;
+        final int n = (int) Math.max(Math.min(numShards, numGames), 1);
+        shards.clear();
+        long seed = startSeed;
+        for (int i = 0; i < n; ++i) {
+            final long games = numGames / n + (i < numGames % n ? 1 : 0);
+            shards.add(new Shard(i, seed, games));
+            seed += games;
+        }
+        final Thread cleanup = new Thread(this::destroy);
+        Runtime.getRuntime().addShutdownHook(cleanup);
+        try {
+            if (!play(new ArrayDeque<>(shards))) {
+                return null;
+            }
+        } finally {
+            destroy();
+            Runtime.getRuntime().removeShutdownHook(cleanup);
+        }
+        final ScoreStatistics statistics = new ScoreStatistics();
+        for (final Shard shard : shards) {
+            System.out.printf("Shard %d, seeds %d to %d: %s\n", shard.index, shard.startSeed,
+                shard.startSeed + shard.games - 1, shard.statistics.getSummary());
+            statistics.merge(shard.statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * @return whether every shard was played
+     */
+    private boolean play(final Deque<Shard> pending) throws IOException, InterruptedException {
+        final List<Shard> running = new ArrayList<>(processes);
+        while (!pending.isEmpty() || !running.isEmpty()) {
+            while (running.size() < processes && !pending.isEmpty()) {
+                final Shard shard = pending.poll();
+                start(shard); // which returns at once if its checkpoint of the same configuration is complete
+                running.add(shard);
+            }
+            Thread.sleep(POLL_MILLIS);
+            for (final Iterator<Shard> it = running.iterator(); it.hasNext();) {
+                final Shard shard = it.next();
+                if (shard.process.isAlive()) {
+                    continue;
+                }
+                it.remove();
+                final int exit = shard.process.exitValue();
+                shard.process = null;
+                final boolean done = isDone(shard);
+                if (exit == 0 && done) {
+                    System.out.printf("Shard %d done: %s\n", shard.index, shard.statistics.getSummary());
+                } else if (shard.attempts < maxAttempts) {
+                    System.out.printf("Shard %d failed with exit code %d after %d games, reassigned\n", shard.index,
+                        exit, shard.statistics.getCount());
+                    pending.add(shard);
+                } else {
+                    System.out.printf("Shard %d failed %d times, see %s\n", shard.index, shard.attempts, log(shard));
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void start(final Shard shard) throws IOException {
+        final List<String> args = new ArrayList<>(command);
+        args.addAll(options);
+        if (!hasSearchSeed) {
+            args.add("-g=" + Long.toUnsignedString(startSeed)); // the same moves as a single process
+        }
+        args.add("-o=" + file(shard, "csv"));
+        args.add("-k=" + file(shard, "ckpt"));
+        args.add(Long.toString(shard.games));
+        args.add(Long.toString(shard.startSeed));
+        ++shard.attempts;
+        final File log = log(shard).toFile();
+        shard.process = new ProcessBuilder(args).redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.appendTo(log)).start();
+        System.out.printf("Shard %d, seeds %d to %d, attempt %d\n", shard.index, shard.startSeed,
+            shard.startSeed + shard.games - 1, shard.attempts);
+    }
+
+    /**
+     * Read the progress of the shard from its checkpoint.
+     *
+     * @return whether every game of the shard was played
+     */
+    private boolean isDone(final Shard shard) throws IOException {
+        final Checkpoint checkpoint = new Checkpoint(file(shard, "ckpt"), 1, "");
+        checkpoint.load();
+        shard.statistics = checkpoint.getStatistics();
+        return checkpoint.getGames() == shard.games && shard.statistics.getCount() == shard.games;
+    }
+
+    private Path file(final Shard shard, final String extension) {
+        return directory.resolve(String.format("shard-%d.%s", shard.index, extension));
+    }
+
+    private Path log(final Shard shard) {
+        return file(shard, "log");
+    }
+
+    private synchronized void destroy() {
+        for (final Shard shard : shards) {
+            if (shard.process != null) {
+                shard.process.destroy();
+            }
+        }
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        int processes = Runtime.getRuntime().availableProcessors();
+        int numShards = 0;
+        int attempts = 3;
+        Path directory = Paths.get("shards");
+        final List<String> jvmOptions = new ArrayList<>();
+        final List<String> prefix = new ArrayList<>();
+        final List<String> options = new ArrayList<>();
+        long games = -1;
+        long seed = -1;
+        for (final String arg : args) {
+            if (games >= 0 && seed >= 0) {
+                options.add(arg);
+            } else if (arg.startsWith("-p=")) {
+                processes = Integer.parseInt(arg.substring(3));
+            } else if (arg.startsWith("-n=")) {
+                numShards = Integer.parseInt(arg.substring(3));
+            } else if (arg.startsWith("-a=")) {
+                attempts = Integer.parseInt(arg.substring(3));
+            } else if (arg.startsWith("-e=")) {
+                directory = Paths.get(arg.substring(3));
+            } else if (arg.startsWith("-j=")) {
+                jvmOptions.add(arg.substring(3));
+            } else if (arg.startsWith("-x=")) {
+                for (final String word : arg.substring(3).trim().split("\\s+")) {
+                    prefix.add(word);
+                }
+            } else if (games < 0) {
+                games = Long.parseUnsignedLong(arg);
+            } else {
+                seed = Long.parseUnsignedLong(arg);
+            }
+        }
+        if (seed < 0) {
+            System.out.println("Usage: ShardLauncher [-p=processes] [-n=shards] [-a=attempts] [-e=directory]"
+                + " [-j=jvm option]... [-x=prefix command] games seed [PokerSquares options]...");
+            return;
+        }
+        final ShardLauncher launcher = new ShardLauncher(processes, attempts, directory, jvmOptions, prefix, options);
+        final ScoreStatistics statistics = launcher.run(games, seed, numShards > 0 ? numShards : processes);
+        if (statistics == null) {
+            System.exit(1);
+        }
+        System.out.print(statistics);
+    }
+}
@@ -0,0 +1,104 @@
+package mengyaxi.pokersquares;
+
+import java.util.Arrays;
+import java.util.List;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Plays the moves of an opening book. The player probes the book before
+ * searching, and plays through this engine on a hit, which takes no time.
+ *
+ * @author Meng
+ */
+final class BookEngine implements SearchEngine {
+
+    private final Board board;
+    private final Symmetries symmetries = new Symmetries();
+    private final int[] grid = new int[Board.NUMBER_OF_CELLS];
+    private final boolean[] tried = new boolean[(Board.SIZE + 1) * (Board.SIZE + 1)]; // by class of candidate
+    private OpeningBook book;
+    private CellCandidate hit;
+    private float hitScore;
+
+    /**
+     * @param board the board of the game, read only
+     */
+    public BookEngine(final Board board) {
+        this.board = board;
+    }
+
+    /**
+     * @param book null for none
+     */
+    public void setBook(final OpeningBook book) {
+        this.book = book;
+        hit = null;
+    }
+
+    /**
+     * Look the position and the card up, and remember the candidate of the
+     * book for the search if there is one. Candidates that only differ by the
+     * empty row or column they open lead to the same key, so only the first
+     * of them is keyed.
+     *
+     * @param card
+     * @param candidates
+     * @return whether the book has a move among the candidates
+     */
+    public boolean probe(final Card card, final List<CellCandidate> candidates) {
+        hit = null;
+        if (book == null || board.numberOfCards() >= book.getMaxCards()) {
+            return false;
+        }
+        Symmetries.gridOf(board, grid);
+        final int index = book.find(symmetries.keyOf(grid, card));
+        if (index < 0) {
+            return false;
+        }
+        final int move = book.getMove(index);
+        Arrays.fill(tried, false);
+        for (final CellCandidate c : candidates) {
+            final int row = board.getRow(c.row).isEmpty() ? Board.SIZE : c.row;
+            final int col = board.getCol(c.col).isEmpty() ? Board.SIZE : c.col;
+            final int k = row * (Board.SIZE + 1) + col;
+            if (tried[k]) {
+                continue;
+            }
+            tried[k] = true;
+            grid[c.id] = card.id + 1;
+            final boolean found = (int) symmetries.keyOf(grid, null) == move;
+            grid[c.id] = 0;
+            if (found) {
+                hit = c;
+                hitScore = book.getScore(index);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return "book";
+    }
+
+    @Override
+    public void clear() {
+        hit = null;
+    }
+
+    @Override
+    public CellCandidate search(final Card card, final List<CellCandidate> candidates, final long millis,
+        final SearchReport report) {
+        if (hit == null) {
+            return candidates.get(0);
+        }
+        report.candidateScores[hit.id] = hitScore;
+        return hit;
+    }
+
+    @Override
+    public void played(final Card card, final int row, final int col) {
+        hit = null;
+    }
+}
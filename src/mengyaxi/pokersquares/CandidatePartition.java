@@ -0,0 +1,171 @@
+package mengyaxi.pokersquares;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The shared work of the candidate-partitioned Monte Carlo. The work unit is
+ * a batch of shuffles, called a block, for one candidate. Workers take units
+ * in order from a shared counter, so an idle worker always takes the next
+ * unit instead of waiting for a slower one. A block is seeded from its index
+ * only, so that all the candidates are evaluated on the same shuffles.
+ *
+ * The coordinator collects the blocks that every candidate has finished, in
+ * order, and scores them shuffle by shuffle as the single-threaded Monte
+ * Carlo does.
+ *
+ * @author Meng
+ */
+final class CandidatePartition {
+
+    public static final int BLOCK_SHUFFLES = 4; // a few, so that taking a unit costs little next to evaluating it
+
+    private final int maxBlocks;
+    private final int[] scores; // by shuffle and candidate id
+    private final AtomicIntegerArray pendingUnits; // by block
+    private final AtomicInteger nextUnit = new AtomicInteger();
+    private final CellCandidate[] candidates = new CellCandidate[CellCandidate.MAX_NUMBER];
+    private int numberOfCandidates;
+    private Position position;
+    private Card card;
+    private long seed;
+    private long deadline;
+    private int blocks; // of the search
+    private int collectedBlocks;
+    private int collectedShuffles;
+    private volatile long prunedIds; // bit per candidate id
+    private volatile boolean stopped;
+
+    /**
+     * @param maxShuffles the most shuffles of a search
+     */
+    public CandidatePartition(final int maxShuffles) {
+        maxBlocks = (maxShuffles + BLOCK_SHUFFLES - 1) / BLOCK_SHUFFLES;
+        scores = new int[maxBlocks * BLOCK_SHUFFLES * CellCandidate.MAX_NUMBER];
+        pendingUnits = new AtomicIntegerArray(maxBlocks);
+    }
+
+    /**
+     * Start a search. The candidates are copied, the given list stays with the
+     * coordinator.
+     *
+     * @param position
+     * @param card
+     * @param candidates
+     * @param seed the seed of the shuffles of the search
+     * @param deadline
+     * @param maxShuffles the most shuffles of the search, rounded up to
+     * blocks
+     */
+    public void init(final Position position, final Card card, final List<CellCandidate> candidates, final long seed,
+        final long deadline, final int maxShuffles) {
+        this.position = position;
+        this.card = card;
+        numberOfCandidates = candidates.size();
+        for (int i = 0; i < numberOfCandidates; ++i) {
+            final CellCandidate c = candidates.get(i);
+            this.candidates[i] = new CellCandidate(c.row, c.col);
+        }
+        for (int b = 0; b < maxBlocks; ++b) {
+            pendingUnits.set(b, numberOfCandidates);
+        }
+        this.seed = seed;
+        this.deadline = deadline;
+        blocks = Math.min((maxShuffles + BLOCK_SHUFFLES - 1) / BLOCK_SHUFFLES, maxBlocks);
+        collectedBlocks = 0;
+        collectedShuffles = 0;
+        prunedIds = 0;
+        stopped = false;
+        nextUnit.set(0);
+    }
+
+    public Position getPosition() {
+        return position;
+    }
+
+    public Card getCard() {
+        return card;
+    }
+
+    /**
+     * @return the next unit to evaluate, negative if there is none left
+     */
+    public int takeUnit() {
+        if (stopped || System.currentTimeMillis() >= deadline) {
+            return -1;
+        }
+        final int unit = nextUnit.getAndIncrement();
+        return unit < blocks * numberOfCandidates ? unit : -1;
+    }
+
+    public static int blockOf(final int unit, final int numberOfCandidates) {
+        return unit / numberOfCandidates;
+    }
+
+    /**
+     * @param unit
+     * @return the candidate of the unit, null if it has been pruned
+     */
+    public CellCandidate candidateOf(final int unit) {
+        final CellCandidate c = candidates[unit % numberOfCandidates];
+        return (prunedIds & 1L << c.id) != 0 ? null : c;
+    }
+
+    public int getNumberOfCandidates() {
+        return numberOfCandidates;
+    }
+
+    public long blockSeed(final int block) {
+        return Position.mix(seed + 0x9e3779b97f4a7c15L * (block + 1));
+    }
+
+    /**
+     * Report a finished unit.
+     *
+     * @param unit
+     * @param blockScores the scores of the shuffles of the block by shuffle
+     * and candidate id, null if the candidate has been pruned
+     */
+    public void finishUnit(final int unit, final int[][] blockScores) {
+        final int block = blockOf(unit, numberOfCandidates);
+        if (blockScores != null) {
+            final int id = candidates[unit % numberOfCandidates].id;
+            for (int k = 0; k < BLOCK_SHUFFLES; ++k) {
+                scores[(block * BLOCK_SHUFFLES + k) * CellCandidate.MAX_NUMBER + id] = blockScores[k][id];
+            }
+        }
+        pendingUnits.decrementAndGet(block);
+    }
+
+    /**
+     * Score the blocks finished by every candidate since the last call, in
+     * order, pruning the candidates as the single-threaded Monte Carlo does.
+     *
+     * @param candidates the candidates of the coordinator
+     * @return the number of shuffles scored so far
+     */
+    public int collect(final List<CellCandidate> candidates) {
+        while (collectedBlocks < blocks && candidates.size() > 1 && pendingUnits.get(collectedBlocks) == 0) {
+            final int offset = collectedBlocks * BLOCK_SHUFFLES * CellCandidate.MAX_NUMBER;
+            for (int k = 0; k < BLOCK_SHUFFLES && candidates.size() > 1; ++k) {
+                for (final CellCandidate c : candidates) {
+                    c.score = scores[offset + k * CellCandidate.MAX_NUMBER + c.id];
+                }
+                CellCandidateEvaluator.scoreShuffle(candidates, true);
+                ++collectedShuffles;
+            }
+            ++collectedBlocks;
+            long pruned = (1L << CellCandidate.MAX_NUMBER) - 1;
+            for (final CellCandidate c : candidates) {
+                pruned &= ~(1L << c.id);
+            }
+            prunedIds = pruned;
+        }
+        return collectedShuffles;
+    }
+
+    public void setStop() {
+        stopped = true;
+    }
+}
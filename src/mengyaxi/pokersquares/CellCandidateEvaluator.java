@@ -4,8 +4,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
 import mengyaxi.pokersquares.board.Board;
+import mengyaxi.pokersquares.board.LineValueModel;
+import mengyaxi.pokersquares.jfr.Jfr;
+import mengyaxi.pokersquares.jfr.PruneEvent;
+import mengyaxi.pokersquares.jfr.WorkerEvent;
 import mengyaxi.util.Linear;
 
 /**
@@ -15,6 +21,12 @@ import mengyaxi.util.Linear;
 final class CellCandidateEvaluator implements Callable<Integer> {
 
     private static final Linear AWARD_FACTOR = new Linear(2, 0.001, 6, 0.01);
+    // near the end of a rollout, placements are searched instead of taken from the strategy
+    private static final double BRANCH_QUALITY = 0.93; // candidates of lower relative quality are not searched
+    private static final int WIDE_BRANCHING_CARDS = 7; // below it, all candidates are searched
+    private static final int NARROW_BRANCHING_CARDS = 8; // from it on, only the best two are
+    private static final int MIN_BOUNDED_CARDS = 2; // below it, bounding a branch costs about as much as finishing it
+    private static final int EXACT_CONTINUATION_CARDS = 4; // below it, the first card of a rollout is searched exactly
 
     private final Board board;
     private final DeckTracker deck;
@@ -25,21 +37,37 @@ final class CellCandidateEvaluator implements Callable<Integer> {
     private long workerDeadline;
     private int shuffles;
     private final CellCandidate[] candidateTable = new CellCandidate[CellCandidate.MAX_NUMBER];
+    private final int[][] lineBoundsByDepth = new int[Board.NUMBER_OF_CELLS][2 * Board.SIZE];
+    private final CellCandidate[] workerCandidates = new CellCandidate[CellCandidate.MAX_NUMBER]; // reused across moves
+    private final List<CellCandidate> workerCandidateList = new ArrayList<>(CellCandidate.MAX_NUMBER);
+    private final List<Card> workerCards = new ArrayList<>(Card.NUM_CARDS);
+    private final int[][] blockScores = new int[CandidatePartition.BLOCK_SHUFFLES][CellCandidate.MAX_NUMBER];
     private final boolean workerMode;
+    private CandidatePartition partition; // null unless working on a partitioned search
+    private final Random blockRandom = new Random();
+    // scores of the rollouts by candidate, first drawn card and cell of that card
+    private final long[] continuationScores = new long[CellCandidate.MAX_NUMBER * Card.NUM_CARDS * Board.NUMBER_OF_CELLS];
+    private final int[] continuationCounts = new int[CellCandidate.MAX_NUMBER * Card.NUM_CARDS * Board.NUMBER_OF_CELLS];
+    private boolean recordContinuations = false;
+    private int horizon = Integer.MAX_VALUE; // cards played by a rollout after the candidate
+    private boolean truncated; // whether the rollouts of the current shuffle stop before the end of the game
+    private long nestedSearches;
     private boolean stopped;
+    private long cpuNanos, wallNanos;
 
     public CellCandidateEvaluator(final Board board, final DeckTracker deck) {
-        this.board = board;
-        this.deck = deck;
-        strategy = new Strategy(board, deck);
-        workerMode = false;
+        this(board, deck, false);
     }
 
     public CellCandidateEvaluator() {
-        board = new Board();
-        deck = new DeckTracker();
+        this(new Board(), new DeckTracker(), true);
+    }
+
+    private CellCandidateEvaluator(final Board board, final DeckTracker deck, final boolean workerMode) {
+        this.board = board;
+        this.deck = deck;
         strategy = new Strategy(board, deck);
-        workerMode = true;
+        this.workerMode = workerMode;
     }
 
     public void clear() {
@@ -69,36 +97,172 @@ final class CellCandidateEvaluator implements Callable<Integer> {
 
     public void resetShuffles() {
         shuffles = 0;
+        nestedSearches = 0;
+        if (recordContinuations) {
+            Arrays.fill(continuationScores, 0);
+            Arrays.fill(continuationCounts, 0);
+        }
+    }
+
+    /**
+     * Record the continuations of the rollouts: for each candidate, the first
+     * card drawn, where it went and the score. When the first card has several
+     * placements near the end of the game, each of them is searched exactly on
+     * the same cards; earlier on, that would cost too much of the bounds.
+     *
+     * @param recordContinuations
+     */
+    public void setRecordContinuations(final boolean recordContinuations) {
+        if (recordContinuations && !this.recordContinuations) {
+            Arrays.fill(continuationScores, 0);
+            Arrays.fill(continuationCounts, 0);
+        }
+        this.recordContinuations = recordContinuations;
+    }
+
+    /**
+     * Add the continuations recorded since the shuffles were reset.
+     *
+     * @param candidateId the candidate played
+     * @param card the card drawn next
+     * @param scores the sum of the scores by cell of the card
+     * @param counts the number of rollouts by cell of the card
+     */
+    public void addContinuations(final int candidateId, final Card card, final long[] scores, final int[] counts) {
+        final int offset = (candidateId * Card.NUM_CARDS + card.id) * Board.NUMBER_OF_CELLS;
+        for (int i = 0; i < Board.NUMBER_OF_CELLS; ++i) {
+            scores[i] += continuationScores[offset + i];
+            counts[i] += continuationCounts[offset + i];
+        }
+    }
+
+    private void recordContinuation(final int candidateId, final Card card, final int cell, final int score) {
+        final int i = (candidateId * Card.NUM_CARDS + card.id) * Board.NUMBER_OF_CELLS + cell;
+        continuationScores[i] += score;
+        ++continuationCounts[i];
+    }
+
+    /**
+     * Truncate the rollouts: past the horizon they stop and the board is
+     * scored with the line values of the strategy, or the expected score of
+     * the board without them. Truncated rollouts play the strategy without
+     * searching, and aren't recorded as continuations.
+     *
+     * @param horizon the cards to play after the candidate, Integer.MAX_VALUE
+     * to play to the end of the game
+     */
+    public void setHorizon(final int horizon) {
+        this.horizon = horizon;
+    }
+
+    /**
+     * @param lineValues the line values of the strategy of the rollouts, null
+     * for the hand-tuned ones
+     */
+    public void setLineValues(final LineValueModel lineValues) {
+        strategy.lineValues = lineValues;
+    }
+
+    /**
+     * @return the calls of finishCandidates since the shuffles were reset
+     */
+    public long getNestedSearches() {
+        return nestedSearches;
     }
 
     public void setStop() {
         stopped = true;
     }
 
-    public void initWorker(final Board board, final DeckTracker deck,
-        final Card card, final List<CellCandidate> candidates, final List<Card> cards, final long deadline) {
-        this.board.copyFrom(board);
-        this.deck.copyFrom(deck);
+    /**
+     * @return the cpu time of the last run as a worker, negative if unknown
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /**
+     * @return the wall time of the last run as a worker
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public void initWorker(final Position position, final Card card, final List<CellCandidate> candidates, final long deadline) {
+        position.restore(board, deck);
         this.card = card;
-        this.candidates = new ArrayList<>(candidates.size());
+        workerCandidateList.clear();
         for (final CellCandidate c : candidates) {
-            this.candidates.add(new CellCandidate(c.row, c.col));
+            CellCandidate wc = workerCandidates[c.id];
+            if (wc == null) {
+                wc = new CellCandidate(c.row, c.col);
+                workerCandidates[c.id] = wc;
+            } else {
+                wc.quality = 0.0;
+                wc.score = 0;
+                wc.totalScore = 0;
+            }
+            workerCandidateList.add(wc);
         }
-        this.cards = new ArrayList<>(cards);
+        this.candidates = workerCandidateList;
+        deck.deal(card);
+        cards = deck.getCards(workerCards);
+        deck.putBack(card);
         workerDeadline = deadline;
-        shuffles = 0;
+        partition = null;
+        resetShuffles();
         stopped = false;
     }
 
+    /**
+     * Prepare to work on units of a candidate-partitioned search.
+     *
+     * @param partition
+     */
+    public void initPartitionWorker(final CandidatePartition partition) {
+        partition.getPosition().restore(board, deck);
+        card = partition.getCard();
+        candidates = null;
+        cards = workerCards;
+        this.partition = partition;
+        resetShuffles();
+        stopped = false;
+    }
+
+    /**
+     * Work alone on a candidate-partitioned search, on the calling thread,
+     * collecting every block as soon as it is finished.
+     *
+     * @param partition
+     * @param candidates the candidates of the coordinator
+     * @return the number of shuffles collected
+     */
+    public int evaluatePartition(final CandidatePartition partition, final List<CellCandidate> candidates) {
+        initPartitionWorker(partition);
+        final int n = partition.getNumberOfCandidates();
+        for (int unit = partition.takeUnit(); unit >= 0 && candidates.size() > 1; unit = partition.takeUnit()) {
+            final CellCandidate c = partition.candidateOf(unit);
+            if (c != null) {
+                evaluateUnit(CandidatePartition.blockOf(unit, n), c);
+            }
+            partition.finishUnit(unit, c == null ? null : blockScores);
+            if (unit % n == n - 1) {
+                partition.collect(candidates);
+            }
+        }
+        return partition.collect(candidates);
+    }
+
     public void evaluate(final Card card, final List<Card> cards) {
-        Collections.shuffle(cards);
-        final List<Card> remainingCards = cards.subList(0, board.numberOfEmptyCells() - 1);
+        final int length = rolloutLength();
+        shuffle(cards, length, ThreadLocalRandom.current());
+        final List<Card> order = cards.subList(0, length);
         deck.deal(card);
         synchronized (this) {
             if (candidates.size() > 1) {
                 for (final CellCandidate c : candidates) {
                     board.putCard(card, c.row, c.col);
-                    c.score = finishPlay(remainingCards);
+                    c.score = rollout(c.id, order);
                     board.retractLastPlay();
                 }
                 ++shuffles;
@@ -108,11 +272,123 @@ final class CellCandidateEvaluator implements Callable<Integer> {
         deck.putBack(card);
     }
 
+    /**
+     * Evaluate a block of a partitioned search for one candidate. The shuffles
+     * of the block only depend on its seed, whichever worker evaluates it.
+     */
+    private void evaluateUnit(final int block, final CellCandidate c) {
+        final int length = rolloutLength();
+        blockRandom.setSeed(partition.blockSeed(block));
+        deck.deal(card);
+        deck.getCards(cards);
+        board.putCard(card, c.row, c.col);
+        for (int k = 0; k < CandidatePartition.BLOCK_SHUFFLES; ++k) {
+            shuffle(cards, length, blockRandom);
+            blockScores[k][c.id] = rollout(c.id, cards.subList(0, length));
+        }
+        board.retractLastPlay();
+        deck.putBack(card);
+        shuffles += CandidatePartition.BLOCK_SHUFFLES;
+    }
+
+    /**
+     * @return the cards to play after the candidate, which tells whether the
+     * rollouts are truncated
+     */
+    private int rolloutLength() {
+        final int cards = board.numberOfEmptyCells() - 1;
+        truncated = horizon < cards;
+        return truncated ? horizon : cards;
+    }
+
+    /**
+     * Draw the first cards of a uniformly random order of the given cards, in
+     * place.
+     */
+    private static void shuffle(final List<Card> cards, final int length, final Random random) {
+        final int n = cards.size();
+        for (int i = 0; i < length; ++i) {
+            Collections.swap(cards, i, i + random.nextInt(n - i));
+        }
+    }
+
+    /**
+     * Finish a rollout for a candidate.
+     */
+    private int rollout(final int id, final List<Card> order) {
+        final int length = order.size();
+        final Card firstCard = length > 0 ? order.get(0) : null;
+        final List<CellCandidate> firstCans = length > 0 ? playForced(firstCard, length) : null;
+        final boolean first = length > 0 && firstCans == null;
+        final int score;
+        if (firstCans != null && recordContinuations && !truncated && length < EXACT_CONTINUATION_CARDS) {
+            score = finishFirst(id, firstCard, trim(firstCans, length), order.subList(1, length));
+        } else {
+            final int firstCell = first ? cellOf(board.getLastPlay()) : -1;
+            score = finishPlay(order.subList(first ? 1 : 0, length), -1);
+            if (first && recordContinuations && !truncated) {
+                recordContinuation(id, firstCard, firstCell, score);
+            }
+        }
+        if (first) {
+            retract(1);
+        }
+        return score;
+    }
+
+    /**
+     * Finish a rollout whose first card has several placements, searching each
+     * of them exactly and recording it as a continuation.
+     */
+    private int finishFirst(final int id, final Card card, final List<CellCandidate> cans, final List<Card> cards) {
+        int maxScore = 0;
+        deck.deal(card);
+        for (final CellCandidate c : cans) {
+            board.putCard(card, c.row, c.col);
+            final int score = finishPlay(cards, -1);
+            board.retractLastPlay();
+            recordContinuation(id, card, c.id, score);
+            maxScore = Integer.max(maxScore, score);
+        }
+        deck.putBack(card);
+        return maxScore;
+    }
+
+    private static int cellOf(final Board.Play p) {
+        return p.row * Board.SIZE + p.col;
+    }
+
     @Override
     public Integer call() throws Exception {
-        do {
-            evaluate(card, cards);
-        } while (System.currentTimeMillis() < workerDeadline && candidates.size() > 1 && !stopped);
+        final WorkerEvent event = Jfr.AVAILABLE ? new WorkerEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        final long wallStart = System.nanoTime();
+        final long cpuStart = ParallelismTuner.currentThreadCpuNanos();
+        if (partition != null) {
+            final int n = partition.getNumberOfCandidates();
+            for (int unit = partition.takeUnit(); unit >= 0; unit = partition.takeUnit()) {
+                final CellCandidate c = partition.candidateOf(unit);
+                if (c != null) {
+                    evaluateUnit(CandidatePartition.blockOf(unit, n), c);
+                }
+                partition.finishUnit(unit, c == null ? null : blockScores);
+            }
+        } else {
+            do {
+                evaluate(card, cards);
+            } while (System.currentTimeMillis() < workerDeadline && candidates.size() > 1 && !stopped);
+        }
+        cpuNanos = cpuStart < 0 ? -1 : ParallelismTuner.currentThreadCpuNanos() - cpuStart;
+        wallNanos = System.nanoTime() - wallStart;
+        if (event != null && event.shouldCommit()) {
+            event.emptyCells = board.numberOfEmptyCells();
+            event.partitioned = partition != null;
+            event.shuffles = shuffles;
+            event.nestedSearches = nestedSearches;
+            event.commit();
+        }
         return shuffles;
     }
 
@@ -150,6 +426,18 @@ final class CellCandidateEvaluator implements Callable<Integer> {
     }
 
     private void finishShuffle() {
+        scoreShuffle(candidates, !workerMode);
+    }
+
+    /**
+     * Add the scores of a shuffle to the totals of the candidates and award
+     * the ones above the average.
+     *
+     * @param candidates
+     * @param prune whether to normalize the qualities and remove the
+     * candidates left behind, which only the owner of the totals may do
+     */
+    static void scoreShuffle(final List<CellCandidate> candidates, final boolean prune) {
         int total = 0;
         for (final CellCandidate c : candidates) {
             c.totalScore += c.score;
@@ -158,7 +446,7 @@ final class CellCandidateEvaluator implements Callable<Integer> {
         }
         final double avg = (double) total / candidates.size();
         final double award = AWARD_FACTOR.apply((double) candidates.size());
-        if (workerMode) {
+        if (!prune) {
             for (final CellCandidate c : candidates) {
                 if (c.totalScore > avg) {
                     c.quality += award;
@@ -180,67 +468,124 @@ final class CellCandidateEvaluator implements Callable<Integer> {
                 c.quality /= maxQuality;
             }
             if (candidates.size() > 1) {
-                candidates.removeIf(c -> c.quality <= 0.01);
+                final int before = candidates.size();
+                if (candidates.removeIf(c -> c.quality <= 0.01) && Jfr.AVAILABLE) {
+                    final PruneEvent event = new PruneEvent();
+                    if (event.shouldCommit()) {
+                        event.before = before;
+                        event.after = candidates.size();
+                        event.commit();
+                    }
+                }
             }
         }
     }
 
-    private int finishCandidates(final Card card, final List<CellCandidate> candidates, final List<Card> cards) {
-        int maxScore = 0;
+    /**
+     * @param bound the score to beat, any result not above it is only an upper
+     * bound of the real score
+     */
+    private int finishCandidates(final Card card, final List<CellCandidate> candidates, final List<Card> cards, final int bound) {
+        ++nestedSearches;
+        long future = 0;
+        for (final Card c : cards) {
+            future |= 1L << c.id;
+        }
+        // bounds of the lines without the card, so that only the row and the
+        // column of a candidate have to be bounded again
+        final int[] lineBounds = lineBoundsByDepth[board.numberOfCards()];
+        int boardBound = -1;
+        int maxScore = bound;
         deck.deal(card);
         for (final CellCandidate c : candidates) {
+            if (maxScore >= 0 && boardBound < 0 && cards.size() >= MIN_BOUNDED_CARDS) {
+                boardBound = 0;
+                for (int i = 0; i < Board.SIZE; ++i) {
+                    lineBounds[i] = board.getRowScoreUpperBound(i, future);
+                    lineBounds[Board.SIZE + i] = board.getColScoreUpperBound(i, future);
+                    boardBound += lineBounds[i] + lineBounds[Board.SIZE + i];
+                }
+            }
             board.putCard(card, c.row, c.col);
-            maxScore = Integer.max(maxScore, finishPlay(cards));
+            if (boardBound < 0 || boardBound - lineBounds[c.row] - lineBounds[Board.SIZE + c.col]
+                + board.getRowScoreUpperBound(c.row, future) + board.getColScoreUpperBound(c.col, future) > maxScore) {
+                maxScore = Integer.max(maxScore, finishPlay(cards, maxScore));
+            }
             board.retractLastPlay();
         }
         deck.putBack(card);
         return maxScore;
     }
 
-    private int finishPlay(final List<Card> cards) {
+    /**
+     * @param bound the score to beat, any result not above it is only an upper
+     * bound of the real score; negative for the exact score
+     */
+    private int finishPlay(final List<Card> cards, final int bound) {
         for (int i = 0; i < cards.size(); ++i) {
             final Card c = cards.get(i);
-            strategy.play(c);
-            List<CellCandidate> cans = strategy.getCandidates();
-            if (cans.size() == 1) {
-                final CellCandidate can = cans.get(0);
-                deck.deal(c);
-                board.putCard(c, can.row, can.col);
-                continue;
-            }
             final int remainingCards = cards.size() - i;
-            if (remainingCards >= 6) {
-                if (cans.get(1).quality < 0.97) {
-                    final CellCandidate can = cans.get(0);
-                    deck.deal(c);
-                    board.putCard(c, can.row, can.col);
-                    continue;
-                }
-                if (remainingCards >= 7) {
-                    if (cans.size() > 2) {
-                        cans = new ArrayList<>(cans.subList(0, 2));
-                    }
-                } else {
-                    int size = 4;
-                    if (cans.size() >= 3 && cans.get(2).quality < 0.97) {
-                        size = 2;
-                    } else if (cans.size() >= 4 && cans.get(3).quality < 0.97) {
-                        size = 3;
-                    }
-                    if (size < cans.size()) {
-                        cans = new ArrayList<>(cans.subList(0, size));
-                    }
-                }
+            final List<CellCandidate> cans = playForced(c, remainingCards);
+            if (cans == null) {
+                continue;
             }
-            final int score = finishCandidates(c, cans, cards.subList(i + 1, cards.size()));
+            final int score = finishCandidates(c, trim(cans, remainingCards), cards.subList(i + 1, cards.size()), bound);
             retract(i);
             return score;
         }
-        final int score = board.getPokerHandScore();
+        final int score = board.numberOfEmptyCells() == 0 ? board.getPokerHandScore() : scoreLeaf();
         retract(cards.size());
         return score;
     }
 
+    private int scoreLeaf() {
+        final double score = strategy.lineValues != null ? strategy.lineValues.getBoardValue(board, board.progress(), deck)
+            : board.updateExpectedScore(deck);
+        return (int) Math.max(Math.round(score), 0);
+    }
+
+    /**
+     * @return the candidates of a card worth searching
+     */
+    private static List<CellCandidate> trim(final List<CellCandidate> cans, final int remainingCards) {
+        if (remainingCards >= WIDE_BRANCHING_CARDS) {
+            if (remainingCards >= NARROW_BRANCHING_CARDS) {
+                if (cans.size() > 2) {
+                    return new ArrayList<>(cans.subList(0, 2));
+                }
+            } else {
+                int size = 4;
+                if (cans.size() >= 3 && cans.get(2).quality < BRANCH_QUALITY) {
+                    size = 2;
+                } else if (cans.size() >= 4 && cans.get(3).quality < BRANCH_QUALITY) {
+                    size = 3;
+                }
+                if (size < cans.size()) {
+                    return new ArrayList<>(cans.subList(0, size));
+                }
+            }
+        }
+        return cans;
+    }
+
+    /**
+     * Play the card if the strategy leaves a single placement for it, or if
+     * the rollout is truncated.
+     *
+     * @return the candidates to search otherwise, null if the card is played
+     */
+    private List<CellCandidate> playForced(final Card c, final int remainingCards) {
+        strategy.play(c);
+        final List<CellCandidate> cans = strategy.getCandidates();
+        if (truncated || cans.size() == 1 || remainingCards >= WIDE_BRANCHING_CARDS && cans.get(1).quality < BRANCH_QUALITY) {
+            final CellCandidate can = cans.get(0);
+            deck.deal(c);
+            board.putCard(c, can.row, can.col);
+            return null;
+        }
+        return cans;
+    }
+
     private void retract(int steps) {
         for (; steps > 0; --steps) {
             deck.putBack(board.retractLastPlay().card);
@@ -0,0 +1,591 @@
+package mengyaxi.pokersquares;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * The decisions of a player, what its verbose mode prints. A trace either
+ * prints the records as they are made, or copies them into a preallocated ring
+ * that a background thread drains to a binary file, so that tracing costs the
+ * thinking thread a few stores per record. DecisionTracePrinter prints such a
+ * file as the verbose mode does.
+ *
+ * Records are made by one thread at a time. When the ring is full, records are
+ * dropped rather than waited for, and counted at the end of the file.
+ *
+ * @author Meng
+ */
+public final class DecisionTrace implements AutoCloseable {
+
+    public static final int MAGIC = 0x50535452; // "PSTR"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+    private static final long IDLE_NANOS = 1000000;
+
+    static final byte CARD = 1;
+    static final byte RAW_CANDIDATES = 2;
+    static final byte CANDIDATES = 3;
+    static final byte ENGINE = 4;
+    static final byte REPORT = 5;
+    static final byte WORKERS = 6;
+    static final byte UTILIZATION = 7;
+    static final byte FIRST_SEARCH = 8;
+    static final byte SEARCH = 9;
+    static final byte CANDIDATES_LEFT = 10;
+    static final byte TREE = 11;
+    static final byte PLAY = 12;
+    static final byte DROPPED = 13;
+
+    /**
+     * Prints to the standard output as the records are made.
+     */
+    static final DecisionTrace STDOUT = new DecisionTrace(System.out);
+
+    static final class Record {
+
+        byte type;
+        String name;
+        int a;
+        int b;
+        int c;
+        long x;
+        long y;
+        long z;
+        long w;
+        double d;
+        int n;
+        final byte[] rows = new byte[Board.NUMBER_OF_CELLS];
+        final byte[] cols = new byte[Board.NUMBER_OF_CELLS];
+        final double[] qualities = new double[Board.NUMBER_OF_CELLS];
+        final double[] scores = new double[Board.NUMBER_OF_CELLS];
+        final long[] counts = new long[Board.NUMBER_OF_CELLS];
+
+        private void setCandidates(final List<CellCandidate> candidates) {
+            n = Math.min(candidates.size(), Board.NUMBER_OF_CELLS);
+            for (int i = 0; i < n; ++i) {
+                final CellCandidate c = candidates.get(i);
+                rows[i] = (byte) c.row;
+                cols[i] = (byte) c.col;
+                qualities[i] = c.quality;
+            }
+        }
+
+        void write(final DataOutput out) throws IOException {
+            out.writeByte(type);
+            switch (type) {
+                case CARD:
+                    out.writeByte(a);
+                    out.writeLong(x);
+                    break;
+                case RAW_CANDIDATES:
+                case CANDIDATES:
+                case CANDIDATES_LEFT:
+                    out.writeByte(n);
+                    for (int i = 0; i < n; ++i) {
+                        out.writeByte(rows[i]);
+                        out.writeByte(cols[i]);
+                        out.writeDouble(qualities[i]);
+                        if (type == CANDIDATES_LEFT) {
+                            out.writeDouble(scores[i]);
+                        }
+                    }
+                    break;
+                case ENGINE:
+                    out.writeUTF(name);
+                    out.writeLong(x);
+                    break;
+                case REPORT:
+                    out.writeUTF(name);
+                    out.writeByte(a);
+                    out.writeByte(b);
+                    out.writeLong(x);
+                    out.writeLong(y);
+                    out.writeLong(z);
+                    out.writeLong(w);
+                    break;
+                case WORKERS:
+                    out.writeInt(a);
+                    out.writeInt(b);
+                    out.writeInt(c);
+                    break;
+                case UTILIZATION:
+                case FIRST_SEARCH:
+                    out.writeDouble(d);
+                    break;
+                case SEARCH:
+                    out.writeLong(x);
+                    out.writeLong(y);
+                    out.writeInt(a);
+                    out.writeInt(b);
+                    break;
+                case TREE:
+                    out.writeLong(x);
+                    out.writeInt(a);
+                    out.writeLong(y);
+                    out.writeLong(z);
+                    out.writeByte(n);
+                    for (int i = 0; i < n; ++i) {
+                        out.writeByte(rows[i]);
+                        out.writeByte(cols[i]);
+                        out.writeLong(counts[i]);
+                        out.writeDouble(scores[i]);
+                    }
+                    break;
+                case PLAY:
+                    out.writeByte(a);
+                    out.writeByte(b);
+                    out.writeByte(c);
+                    break;
+                case DROPPED:
+                    out.writeLong(x);
+                    break;
+                default:
+                    throw new IOException("Unknown trace record " + type);
+            }
+        }
+
+        /**
+         * @param in
+         * @return false at the end of the input
+         * @throws IOException
+         */
+        boolean read(final DataInput in) throws IOException {
+            try {
+                type = in.readByte();
+            } catch (final EOFException ex) {
+                return false;
+            }
+            switch (type) {
+                case CARD:
+                    a = in.readByte();
+                    x = in.readLong();
+                    break;
+                case RAW_CANDIDATES:
+                case CANDIDATES:
+                case CANDIDATES_LEFT:
+                    n = in.readByte();
+                    for (int i = 0; i < n; ++i) {
+                        rows[i] = in.readByte();
+                        cols[i] = in.readByte();
+                        qualities[i] = in.readDouble();
+                        if (type == CANDIDATES_LEFT) {
+                            scores[i] = in.readDouble();
+                        }
+                    }
+                    break;
+                case ENGINE:
+                    name = in.readUTF();
+                    x = in.readLong();
+                    break;
+                case REPORT:
+                    name = in.readUTF();
+                    a = in.readByte();
+                    b = in.readByte();
+                    x = in.readLong();
+                    y = in.readLong();
+                    z = in.readLong();
+                    w = in.readLong();
+                    break;
+                case WORKERS:
+                    a = in.readInt();
+                    b = in.readInt();
+                    c = in.readInt();
+                    break;
+                case UTILIZATION:
+                case FIRST_SEARCH:
+                    d = in.readDouble();
+                    break;
+                case SEARCH:
+                    x = in.readLong();
+                    y = in.readLong();
+                    a = in.readInt();
+                    b = in.readInt();
+                    break;
+                case TREE:
+                    x = in.readLong();
+                    a = in.readInt();
+                    y = in.readLong();
+                    z = in.readLong();
+                    n = in.readByte();
+                    for (int i = 0; i < n; ++i) {
+                        rows[i] = in.readByte();
+                        cols[i] = in.readByte();
+                        counts[i] = in.readLong();
+                        scores[i] = in.readDouble();
+                    }
+                    break;
+                case PLAY:
+                    a = in.readByte();
+                    b = in.readByte();
+                    c = in.readByte();
+                    break;
+                case DROPPED:
+                    x = in.readLong();
+                    break;
+                default:
+                    throw new IOException("Unknown trace record " + type);
+            }
+            return true;
+        }
+
+        /**
+         * Print the record as the verbose mode of the player does.
+         *
+         * @param out
+         */
+        void print(final PrintStream out) {
+            switch (type) {
+                case CARD:
+                    out.println(String.format("Get card \"%s\". Remaining seconds: %.2f", Card.getCardById(a), x / 1000.0));
+                    break;
+                case RAW_CANDIDATES:
+                case CANDIDATES:
+                    out.print(n + (type == RAW_CANDIDATES ? " raw candidates: " : " candidates: "));
+                    for (int i = 0; i < n; ++i) {
+                        out.print(String.format(" (%d,%d: q=%.2f)", rows[i] + 1, cols[i] + 1, qualities[i]));
+                    }
+                    out.println();
+                    break;
+                case ENGINE:
+                    out.println(String.format("Engine: %s, time quota: %.2f seconds", name, x / 1000.0));
+                    break;
+                case REPORT:
+                    out.println(String.format("%s: %d empty cells, %d candidates, %d rollouts, %d nodes, %.2f ms of %d ms",
+                        name, a, b, x, y, z / 1e6, w));
+                    break;
+                case WORKERS:
+                    if (c > 0) {
+                        out.println(String.format("%d workers are working on %d candidates in blocks of %d shuffles", a, b, c));
+                    } else {
+                        out.println(String.format("%d workers are working", a));
+                    }
+                    break;
+                case UTILIZATION:
+                    out.println(String.format("Worker utilization: %.1f%%", d));
+                    break;
+                case FIRST_SEARCH:
+                    out.println(String.format("First search: %.0f shuffles/s", d));
+                    break;
+                case SEARCH:
+                    out.println(String.format("%d shuffles completed within %.2f seconds, %d seeded from the last move%s",
+                        x, y / 1000.0, a, b >= 0 ? String.format(", truncated after %d cards", b) : ""));
+                    break;
+                case CANDIDATES_LEFT:
+                    out.print(n + " candidates left:");
+                    for (int i = 0; i < n; ++i) {
+                        out.print(String.format(" (%d,%d: q=%.2f, s=%.2f)", rows[i] + 1, cols[i] + 1, qualities[i], scores[i]));
+                    }
+                    out.println();
+                    break;
+                case TREE:
+                    out.println(String.format("%d iterations of %d trees completed within %.2f seconds, %d nodes in the first tree",
+                        x, a, y / 1000.0, z));
+                    out.print("Visits:");
+                    for (int i = 0; i < n; ++i) {
+                        out.print(String.format(" (%d,%d: n=%d, s=%.2f)", rows[i] + 1, cols[i] + 1, counts[i], scores[i]));
+                    }
+                    out.println();
+                    break;
+                case PLAY:
+                    out.println(String.format("Play \"%s\" at (%d, %d)", Card.getCardById(a), b + 1, c + 1));
+                    break;
+                case DROPPED:
+                    out.println(String.format("%d trace records dropped", x));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private final PrintStream out;
+    private final Record[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // the next record to drain
+    private final AtomicLong tail = new AtomicLong(); // the next record to make
+    private final AtomicLong dropped = new AtomicLong();
+    private final DataOutputStream file;
+    private final Thread drainer;
+    private final Thread closer; // the shutdown hook
+    private volatile boolean closed = false;
+    private IOException failure;
+
+    private DecisionTrace(final PrintStream out) {
+        this.out = out;
+        ring = new Record[]{new Record()};
+        mask = 0;
+        file = null;
+        drainer = null;
+        closer = null;
+    }
+
+    private DecisionTrace(final Path path, final int capacity) throws IOException {
+        out = null;
+        final int n = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        ring = new Record[n];
+        for (int i = 0; i < n; ++i) {
+            ring[i] = new Record();
+        }
+        mask = n - 1;
+        file = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        file.writeInt(MAGIC);
+        file.writeInt(VERSION);
+        drainer = new Thread(this::drain, "Decision trace " + path.getFileName());
+        drainer.setDaemon(true);
+        drainer.start();
+        closer = new Thread(() -> {
+            try {
+                close();
+            } catch (final IOException ex) {
+                ex.printStackTrace(System.out);
+            }
+        });
+    }
+
+    /**
+     * Trace to a file, until closed or the virtual machine exits. Closing
+     * removes the shutdown hook that closes it on exit.
+     *
+     * @param path
+     * @param capacity the records of the ring, rounded up to a power of two
+     * @return the trace
+     * @throws IOException
+     */
+    public static DecisionTrace open(final Path path, final int capacity) throws IOException {
+        final DecisionTrace trace = new DecisionTrace(path, capacity);
+        Runtime.getRuntime().addShutdownHook(trace.closer);
+        return trace;
+    }
+
+    /**
+     * @return the records dropped because the ring was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private Record claim(final byte type) {
+        final long t = tail.get();
+        if (t - head.get() > mask || closed) {
+            dropped.incrementAndGet();
+            return null;
+        }
+        final Record r = ring[(int) t & mask];
+        r.type = type;
+        return r;
+    }
+
+    private void publish(final Record r) {
+        if (out != null) {
+            r.print(out);
+        } else {
+            tail.lazySet(tail.get() + 1);
+        }
+    }
+
+    void card(final Card card, final long millisRemaining) {
+        final Record r = claim(CARD);
+        if (r != null) {
+            r.a = card.id;
+            r.x = millisRemaining;
+            publish(r);
+        }
+    }
+
+    /**
+     * @param type RAW_CANDIDATES from the Strategy, CANDIDATES for the engine
+     * @param candidates
+     */
+    void candidates(final byte type, final List<CellCandidate> candidates) {
+        final Record r = claim(type);
+        if (r != null) {
+            r.setCandidates(candidates);
+            publish(r);
+        }
+    }
+
+    void engine(final String name, final long quotaMillis) {
+        final Record r = claim(ENGINE);
+        if (r != null) {
+            r.name = name;
+            r.x = quotaMillis;
+            publish(r);
+        }
+    }
+
+    void report(final SearchReport report) {
+        final Record r = claim(REPORT);
+        if (r != null) {
+            r.name = report.engine;
+            r.a = report.emptyCells;
+            r.b = report.candidates;
+            r.x = report.rollouts;
+            r.y = report.nodes;
+            r.z = report.nanos;
+            r.w = report.quotaMillis;
+            publish(r);
+        }
+    }
+
+    /**
+     * @param workers
+     * @param candidates
+     * @param blockShuffles the shuffles of a block of a partitioned search, 0
+     * if the workers aren't partitioned
+     */
+    void workers(final int workers, final int candidates, final int blockShuffles) {
+        final Record r = claim(WORKERS);
+        if (r != null) {
+            r.a = workers;
+            r.b = candidates;
+            r.c = blockShuffles;
+            publish(r);
+        }
+    }
+
+    void utilization(final double percent) {
+        final Record r = claim(UTILIZATION);
+        if (r != null) {
+            r.d = percent;
+            publish(r);
+        }
+    }
+
+    void firstSearch(final double shufflesPerSecond) {
+        final Record r = claim(FIRST_SEARCH);
+        if (r != null) {
+            r.d = shufflesPerSecond;
+            publish(r);
+        }
+    }
+
+    /**
+     * @param shuffles
+     * @param millis
+     * @param seeded
+     * @param horizon the cards after which the rollouts were truncated, -1 if
+     * they weren't
+     */
+    void search(final long shuffles, final long millis, final int seeded, final int horizon) {
+        final Record r = claim(SEARCH);
+        if (r != null) {
+            r.x = shuffles;
+            r.y = millis;
+            r.a = seeded;
+            r.b = horizon;
+            publish(r);
+        }
+    }
+
+    /**
+     * @param candidates
+     * @param shuffles the shuffles the total scores of the candidates are of
+     */
+    void candidatesLeft(final List<CellCandidate> candidates, final int shuffles) {
+        final Record r = claim(CANDIDATES_LEFT);
+        if (r != null) {
+            r.setCandidates(candidates);
+            for (int i = 0; i < r.n; ++i) {
+                r.scores[i] = (double) candidates.get(i).totalScore / shuffles;
+            }
+            publish(r);
+        }
+    }
+
+    void tree(final long iterations, final int trees, final long millis, final long nodes,
+        final List<CellCandidate> candidates, final int[] visits, final long[] scores) {
+        final Record r = claim(TREE);
+        if (r != null) {
+            r.x = iterations;
+            r.a = trees;
+            r.y = millis;
+            r.z = nodes;
+            r.setCandidates(candidates);
+            for (int i = 0; i < r.n; ++i) {
+                final int id = candidates.get(i).id;
+                r.counts[i] = visits[id];
+                r.scores[i] = visits[id] > 0 ? (double) scores[id] / visits[id] : 0.0;
+            }
+            publish(r);
+        }
+    }
+
+    void play(final Card card, final int row, final int col) {
+        final Record r = claim(PLAY);
+        if (r != null) {
+            r.a = card.id;
+            r.b = row;
+            r.c = col;
+            publish(r);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                final long h = head.get();
+                if (h < tail.get()) {
+                    ring[(int) h & mask].write(file);
+                    head.lazySet(h + 1);
+                } else if (closed) {
+                    break;
+                } else {
+                    file.flush();
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+            if (dropped.get() > 0) {
+                final Record r = new Record();
+                r.type = DROPPED;
+                r.x = dropped.get();
+                r.write(file);
+            }
+            file.flush();
+        } catch (final IOException ex) {
+            failure = ex;
+            closed = true;
+        }
+    }
+
+    /**
+     * Drain the records made so far and close the file.
+     *
+     * @throws IOException if the file couldn't be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (drainer == null) {
+            return;
+        }
+        if (Thread.currentThread() != closer) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(closer);
+            } catch (final IllegalStateException ex) {
+                // the virtual machine is shutting down, the hook runs anyway
+            }
+        }
+        closed = true;
+        try {
+            drainer.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        file.close();
+        if (failure != null) {
+            final IOException ex = failure;
+            failure = null;
+            throw ex;
+        }
+    }
+}
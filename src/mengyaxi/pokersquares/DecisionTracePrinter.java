@@ -0,0 +1,56 @@
+package mengyaxi.pokersquares;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Prints a decision trace file as the verbose mode of the player prints the
+ * decisions as it makes them.
+ *
+ * Usage: DecisionTracePrinter file
+ *
+ * @author Meng
+ */
+public final class DecisionTracePrinter {
+
+    private DecisionTracePrinter() {
+    }
+
+    /**
+     * @param path a file written by DecisionTrace
+     * @param out
+     * @return the number of records
+     * @throws IOException if the file can't be read or isn't a trace file
+     */
+    public static long print(final Path path, final PrintStream out) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != DecisionTrace.MAGIC) {
+                throw new IOException("Not a decision trace file");
+            }
+            final int version = in.readInt();
+            if (version != DecisionTrace.VERSION) {
+                throw new IOException("Unsupported decision trace file version " + version);
+            }
+            final DecisionTrace.Record record = new DecisionTrace.Record();
+            long n = 0;
+            while (record.read(in)) {
+                record.print(out);
+                ++n;
+            }
+            return n;
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: DecisionTracePrinter file");
+            return;
+        }
+        print(Paths.get(args[0]), System.out);
+    }
+}
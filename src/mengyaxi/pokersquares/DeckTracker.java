@@ -17,9 +17,21 @@ public final class DeckTracker {
         clear();
     }
 
-    public void copyFrom(final DeckTracker deck) {
-        System.arraycopy(deck.bookkeepingByCardId, 0, bookkeepingByCardId, 0, Card.NUM_CARDS);
-        numberOfCards = deck.numberOfCards;
+    public long toBits() {
+        long bits = 0;
+        for (int id = 0; id < bookkeepingByCardId.length; ++id) {
+            if (bookkeepingByCardId[id]) {
+                bits |= 1L << id;
+            }
+        }
+        return bits;
+    }
+
+    public void fromBits(final long bits) {
+        for (int id = 0; id < bookkeepingByCardId.length; ++id) {
+            bookkeepingByCardId[id] = (bits & 1L << id) != 0;
+        }
+        numberOfCards = Long.bitCount(bits);
     }
 
     public int getNumberOfCards() {
@@ -66,7 +78,11 @@ public final class DeckTracker {
     }
 
     public List<Card> getCards() {
-        final List<Card> deck = new ArrayList<>(numberOfCards);
+        return getCards(new ArrayList<>(numberOfCards));
+    }
+
+    public List<Card> getCards(final List<Card> deck) {
+        deck.clear();
         for (int id = 0; id < bookkeepingByCardId.length; ++id) {
             if (bookkeepingByCardId[id]) {
                 deck.add(Card.getCardById(id));
@@ -0,0 +1,53 @@
+package mengyaxi.pokersquares;
+
+/**
+ * The JMX view of EngineMetrics. Times are in milliseconds.
+ *
+ * @author Meng
+ */
+public interface EngineMetricsMBean {
+
+    long getMoves();
+
+    long getSearchedMoves();
+
+    double getShufflesPerMoveMean();
+
+    long getShufflesPerMoveP50();
+
+    long getShufflesPerMoveP99();
+
+    double getCandidatesBeforePruningMean();
+
+    double getCandidatesAfterPruningMean();
+
+    /**
+     * @return the time searches took over the time they were given
+     */
+    double getQuotaUsage();
+
+    double getOvershootMeanMillis();
+
+    double getOvershootP99Millis();
+
+    double getOvershootMaxMillis();
+
+    long getNestedSearches();
+
+    double getNestedSearchesPerShuffle();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP90Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyMaxMillis();
+
+    /**
+     * @return the shuffles per second of the Monte Carlo workers, by worker
+     */
+    double[] getWorkerRolloutsPerSecond();
+
+    void reset();
+}
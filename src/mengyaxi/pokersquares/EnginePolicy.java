@@ -0,0 +1,18 @@
+package mengyaxi.pokersquares;
+
+/**
+ * Picks the search engine of a move.
+ *
+ * @author Meng
+ */
+interface EnginePolicy {
+
+    /**
+     * @param emptyCells before the card is played
+     * @param candidates
+     * @param millis the time left for the game, once the contingency of the
+     * rest of the game is put aside; it may be negative
+     * @return
+     */
+    SearchEngine choose(int emptyCells, int candidates, long millis);
+}
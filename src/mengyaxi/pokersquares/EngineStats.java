@@ -0,0 +1,52 @@
+package mengyaxi.pokersquares;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The search reports summed by engine, to compare mixes of engines.
+ *
+ * @author Meng
+ */
+public final class EngineStats {
+
+    private static final class Sum {
+
+        long moves, rollouts, nodes, nanos, maxNanos;
+    }
+
+    private final Map<String, Sum> sums = new LinkedHashMap<>();
+
+    public void add(final SearchReport report) {
+        final Sum s = sums.computeIfAbsent(report.engine, e -> new Sum());
+        ++s.moves;
+        s.rollouts += report.rollouts;
+        s.nodes += report.nodes;
+        s.nanos += report.nanos;
+        s.maxNanos = Math.max(s.maxNanos, report.nanos);
+    }
+
+    public void clear() {
+        sums.clear();
+    }
+
+    /**
+     * @param engine
+     * @return the number of moves searched by the engine
+     */
+    public long getMoves(final String engine) {
+        final Sum s = sums.get(engine);
+        return s == null ? 0 : s.moves;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("Engine          Moves     Rollouts        Nodes  Mean ms   Max ms\n");
+        for (final Map.Entry<String, Sum> e : sums.entrySet()) {
+            final Sum s = e.getValue();
+            sb.append(String.format("%-12s %8d %12d %12d %8.2f %8.2f\n", e.getKey(), s.moves, s.rollouts, s.nodes,
+                s.nanos / 1e6 / s.moves, s.maxNanos / 1e6));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package mengyaxi.pokersquares;
+
+import java.util.List;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Solves the end of the game exactly: the expected score of a candidate is the
+ * mean over the next card of the best expected score of its cells, down to the
+ * full board. The candidates of the card are searched best first, so that the
+ * best of the ones solved is played if the time quota runs out. That is the
+ * one case where the deterministic mode of the player depends on timing,
+ * as the end of the game takes a few milliseconds to solve from the default
+ * empty cells.
+ *
+ * @author Meng
+ */
+final class ExactEngine implements SearchEngine {
+
+    private static final int DEADLINE_CHECK_LEAVES = 4096;
+
+    private final Board board;
+    private final DeckTracker deck;
+    private final Board solverBoard = new Board();
+    private final DeckTracker solverDeck = new DeckTracker();
+    private long deadline;
+    private boolean timedOut;
+    private long leaves;
+    private long nodes;
+
+    /**
+     * @param board the board of the game, read only
+     * @param deck the deck tracker of the game, read only
+     */
+    public ExactEngine(final Board board, final DeckTracker deck) {
+        this.board = board;
+        this.deck = deck;
+    }
+
+    @Override
+    public String getName() {
+        return "exact";
+    }
+
+    @Override
+    public void clear() {
+    }
+
+    @Override
+    public CellCandidate search(final Card card, final List<CellCandidate> candidates, final long millis,
+        final SearchReport report) {
+        Position.of(board, deck).restore(solverBoard, solverDeck);
+        final long undealt = solverDeck.toBits() & ~(1L << card.id);
+        deadline = System.currentTimeMillis() + millis;
+        timedOut = false;
+        leaves = 0;
+        nodes = 0;
+        CellCandidate winner = candidates.get(0);
+        double best = -1.0;
+        for (final CellCandidate c : candidates) {
+            solverBoard.putCard(card, c.row, c.col);
+            final double value = chance(undealt);
+            solverBoard.retractLastPlay();
+            if (timedOut) {
+                break;
+            }
+            report.candidateScores[c.id] = value;
+            if (value > best) {
+                best = value;
+                winner = c;
+            }
+        }
+        report.rollouts = leaves;
+        report.nodes = nodes;
+        return winner;
+    }
+
+    @Override
+    public void played(final Card card, final int row, final int col) {
+    }
+
+    /**
+     * @param undealt a bit per card id still to come
+     * @return the expected score of the board
+     */
+    private double chance(final long undealt) {
+        ++nodes;
+        if (solverBoard.numberOfEmptyCells() == 0) {
+            if (++leaves % DEADLINE_CHECK_LEAVES == 0 && System.currentTimeMillis() >= deadline) {
+                timedOut = true;
+            }
+            return solverBoard.getPokerHandScore();
+        }
+        double sum = 0.0;
+        for (long bits = undealt; bits != 0 && !timedOut; bits &= bits - 1) {
+            final int id = Long.numberOfTrailingZeros(bits);
+            sum += decision(Card.getCardById(id), undealt & ~(1L << id));
+        }
+        return sum / Long.bitCount(undealt);
+    }
+
+    /**
+     * @return the best expected score of the cells of the card
+     */
+    private double decision(final Card card, final long undealt) {
+        ++nodes;
+        double best = 0.0;
+        for (int row = 0; row < Board.SIZE; ++row) {
+            for (int col = 0; col < Board.SIZE; ++col) {
+                if (solverBoard.isEmpty(row, col)) {
+                    solverBoard.putCard(card, row, col);
+                    best = Math.max(best, chance(undealt));
+                    solverBoard.retractLastPlay();
+                }
+            }
+        }
+        return best;
+    }
+}
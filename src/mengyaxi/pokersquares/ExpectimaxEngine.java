@@ -0,0 +1,250 @@
+package mengyaxi.pokersquares;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import mengyaxi.pokersquares.board.Board;
+import mengyaxi.pokersquares.board.LineValueModel;
+
+/**
+ * A shallow expectimax: the value of a candidate is the mean over the next
+ * card of the best value of its cells, a given number of plies deep, and the
+ * leaves are scored by the line values instead of being played out. The cells
+ * of a card are the candidates the Strategy gives it.
+ *
+ * It is deterministic and its cost depends on the position only, so it plays
+ * when there is no time for sampling. The next cards of the first ply are
+ * split among searchers running on the executor.
+ *
+ * @author Meng
+ */
+final class ExpectimaxEngine implements SearchEngine {
+
+    private static final int DEADLINE_CHECK_LEAVES = 1024;
+
+    private final Board board;
+    private final DeckTracker deck;
+    private final ExecutorService executor;
+    private final List<Searcher> searchers = new ArrayList<>();
+    private int plies = 1;
+    private LineValueModel lineValues;
+
+    /**
+     * @param board the board of the game, read only
+     * @param deck the deck tracker of the game, read only
+     * @param executor
+     */
+    public ExpectimaxEngine(final Board board, final DeckTracker deck, final ExecutorService executor) {
+        this.board = board;
+        this.deck = deck;
+        this.executor = executor;
+        searchers.add(new Searcher());
+    }
+
+    /**
+     * @param n the number of searchers splitting the next cards, at least 1
+     */
+    public void setNumberOfSearchers(final int n) {
+        while (searchers.size() > Math.max(n, 1)) {
+            searchers.remove(searchers.size() - 1);
+        }
+        while (searchers.size() < n) {
+            final Searcher s = new Searcher();
+            s.strategy.lineValues = lineValues;
+            searchers.add(s);
+        }
+    }
+
+    /**
+     * @param plies the number of next cards searched, at least 1
+     */
+    public void setPlies(final int plies) {
+        this.plies = Math.max(plies, 1);
+    }
+
+    public void setLineValues(final LineValueModel lineValues) {
+        this.lineValues = lineValues;
+        for (final Searcher s : searchers) {
+            s.strategy.lineValues = lineValues;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "expectimax";
+    }
+
+    @Override
+    public void clear() {
+    }
+
+    @Override
+    public CellCandidate search(final Card card, final List<CellCandidate> candidates, final long millis,
+        final SearchReport report) {
+        final Position position = Position.of(board, deck);
+        final long deadline = System.currentTimeMillis() + millis;
+        final long undealt = deck.toBits() & ~(1L << card.id);
+        final int n = Math.min(searchers.size(), Long.bitCount(undealt));
+        for (int i = 0; i < n; ++i) {
+            searchers.get(i).init(position, card, candidates, undealt, i, n, deadline);
+        }
+        if (n > 1) {
+            try {
+                for (final Future<Void> f : executor.invokeAll(searchers.subList(0, n))) {
+                    f.get();
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        } else if (n == 1) {
+            searchers.get(0).call();
+        }
+        // a candidate is solved once every searcher has solved it
+        int solved = candidates.size();
+        long leaves = 0;
+        long nodes = 0;
+        for (int i = 0; i < n; ++i) {
+            solved = Math.min(solved, searchers.get(i).solved);
+            leaves += searchers.get(i).leaves;
+            nodes += searchers.get(i).nodes;
+        }
+        CellCandidate winner = candidates.get(0);
+        double best = -1.0;
+        for (int j = 0; j < solved; ++j) {
+            double sum = 0.0;
+            for (int i = 0; i < n; ++i) {
+                sum += searchers.get(i).sums[j];
+            }
+            final CellCandidate c = candidates.get(j);
+            final double value = n > 0 ? sum / Long.bitCount(undealt) : 0.0;
+            report.candidateScores[c.id] = value;
+            if (value > best) {
+                best = value;
+                winner = c;
+            }
+        }
+        report.rollouts = leaves;
+        report.nodes = nodes;
+        return winner;
+    }
+
+    @Override
+    public void played(final Card card, final int row, final int col) {
+    }
+
+    /**
+     * Sums the values of every candidate over its share of the next cards, on
+     * a board of its own.
+     */
+    private final class Searcher implements Callable<Void> {
+
+        private final Board board = new Board();
+        private final DeckTracker deck = new DeckTracker();
+        private final Strategy strategy = new Strategy(board, deck);
+        private final double[] sums = new double[CellCandidate.MAX_NUMBER];
+        private final int[][] cells = new int[Board.NUMBER_OF_CELLS][CellCandidate.MAX_NUMBER]; // by depth
+        private Position position;
+        private Card card;
+        private List<CellCandidate> candidates;
+        private long undealt;
+        private int first;
+        private int step;
+        private long deadline;
+        private boolean timedOut;
+        private int solved;
+        private long leaves;
+        private long nodes;
+
+        void init(final Position position, final Card card, final List<CellCandidate> candidates, final long undealt,
+            final int first, final int step, final long deadline) {
+            this.position = position;
+            this.card = card;
+            this.candidates = candidates;
+            this.undealt = undealt;
+            this.first = first;
+            this.step = step;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public Void call() {
+            position.restore(board, deck);
+            strategy.clear();
+            timedOut = false;
+            solved = 0;
+            leaves = 0;
+            nodes = 0;
+            deck.deal(card);
+            for (final CellCandidate c : candidates) {
+                board.putCard(card, c.row, c.col);
+                double sum = 0.0;
+                int k = 0;
+                for (long bits = undealt; bits != 0 && !timedOut; bits &= bits - 1, ++k) {
+                    if (k % step == first) {
+                        sum += decision(Card.getCardById(Long.numberOfTrailingZeros(bits)), plies - 1);
+                    }
+                }
+                board.retractLastPlay();
+                if (timedOut) {
+                    break;
+                }
+                sums[solved++] = sum;
+            }
+            deck.putBack(card);
+            return null;
+        }
+
+        /**
+         * @return the expected value of the board, the given number of plies
+         * deep
+         */
+        private double chance(final int plies) {
+            ++nodes;
+            final long bits0 = deck.toBits();
+            double sum = 0.0;
+            for (long bits = bits0; bits != 0 && !timedOut; bits &= bits - 1) {
+                sum += decision(Card.getCardById(Long.numberOfTrailingZeros(bits)), plies - 1);
+            }
+            return sum / Long.bitCount(bits0);
+        }
+
+        /**
+         * @return the best value of the cells the Strategy gives the card
+         */
+        private double decision(final Card c, final int plies) {
+            ++nodes;
+            strategy.play(c);
+            final List<CellCandidate> cans = strategy.getCandidates();
+            final int[] ids = cells[board.numberOfCards()];
+            final int n = cans.size();
+            for (int i = 0; i < n; ++i) {
+                ids[i] = cans.get(i).id;
+            }
+            deck.deal(c);
+            double best = 0.0;
+            for (int i = 0; i < n; ++i) {
+                board.putCard(c, ids[i] / Board.SIZE, ids[i] % Board.SIZE);
+                best = Math.max(best, plies > 0 && board.numberOfEmptyCells() > 0 ? chance(plies) : leaf());
+                board.retractLastPlay();
+            }
+            deck.putBack(c);
+            return best;
+        }
+
+        private double leaf() {
+            if (++leaves % DEADLINE_CHECK_LEAVES == 0 && System.currentTimeMillis() >= deadline) {
+                timedOut = true;
+            }
+            if (board.numberOfEmptyCells() == 0) {
+                return board.getPokerHandScore();
+            }
+            return lineValues != null ? lineValues.getBoardValue(board, board.progress(), deck)
+                : board.updateExpectedScore(deck);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package mengyaxi.pokersquares;
+
+import java.util.List;
+
+/**
+ * Plays the best candidate of the Strategy without searching.
+ *
+ * @author Meng
+ */
+final class HeuristicEngine implements SearchEngine {
+
+    @Override
+    public String getName() {
+        return "heuristic";
+    }
+
+    @Override
+    public void clear() {
+    }
+
+    @Override
+    public CellCandidate search(final Card card, final List<CellCandidate> candidates, final long millis,
+        final SearchReport report) {
+        return candidates.get(0);
+    }
+
+    @Override
+    public void played(final Card card, final int row, final int col) {
+    }
+}
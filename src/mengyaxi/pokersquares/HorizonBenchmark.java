@@ -0,0 +1,88 @@
+package mengyaxi.pokersquares;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Compares rollout horizons at a fixed time per game: a single-threaded
+ * player plays the same deals with every horizon, and the scores are compared
+ * with those of the first one. The rollout throughput by stage and horizon is
+ * printed first.
+ *
+ * Usage: HorizonBenchmark [games] [millis per game] [horizons, e.g. full,auto,8,4]
+ *
+ * @author Meng
+ */
+public final class HorizonBenchmark {
+
+    private final PokerSquaresPlayer player = new PokerSquaresPlayer();
+    private final Board board = new Board();
+    private final List<Card> cards = new ArrayList<>(Card.NUM_CARDS);
+
+    private HorizonBenchmark() {
+        player.parallel = false;
+        player.trainLineValues(player.lineValueMillis);
+        player.warmUp(player.warmUpMillis);
+        player.calibrateHorizons(player.horizonCalibrationMillis);
+    }
+
+    private int play(final long seed, final long gameMillis) {
+        player.init();
+        board.clear();
+        cards.clear();
+        for (int i = 0; i < Card.NUM_CARDS; ++i) {
+            cards.add(Card.getCardById(i));
+        }
+        Collections.shuffle(cards, new Random(Position.mix(seed)));
+        long millisRemaining = gameMillis;
+        for (int i = 0; i < Board.NUMBER_OF_CELLS; ++i) {
+            final long start = System.currentTimeMillis();
+            final int[] cell = player.getPlay(cards.get(i), millisRemaining);
+            millisRemaining -= System.currentTimeMillis() - start;
+            board.putCard(cards.get(i), cell[0], cell[1]);
+        }
+        return board.getPokerHandScore();
+    }
+
+    private static int parseHorizon(final String s) {
+        switch (s) {
+            case "full":
+                return PokerSquaresPlayer.FULL_HORIZON;
+            case "auto":
+                return PokerSquaresPlayer.AUTO_HORIZON;
+            default:
+                return Integer.parseInt(s);
+        }
+    }
+
+    public static void main(final String[] args) {
+        final int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final long gameMillis = args.length > 1 ? Long.parseLong(args[1]) : 10000;
+        final String[] names = (args.length > 2 ? args[2] : "full,auto,12,8,6,4").split(",");
+        final HorizonBenchmark benchmark = new HorizonBenchmark();
+        System.out.print(benchmark.player.getHorizonRates());
+        final int[][] scores = new int[names.length][games];
+        for (int g = 0; g < games; ++g) {
+            for (int h = 0; h < names.length; ++h) {
+                benchmark.player.rolloutHorizon = parseHorizon(names[h]);
+                scores[h][g] = benchmark.play(g, gameMillis);
+            }
+        }
+        for (int h = 0; h < names.length; ++h) {
+            double sum = 0, sumDiff = 0, sumDiff2 = 0;
+            for (int g = 0; g < games; ++g) {
+                final int diff = scores[h][g] - scores[0][g];
+                sum += scores[h][g];
+                sumDiff += diff;
+                sumDiff2 += (double) diff * diff;
+            }
+            final double meanDiff = sumDiff / games;
+            final double stdErr = Math.sqrt(Math.max(sumDiff2 / games - meanDiff * meanDiff, 0) / games);
+            System.out.println(String.format("Horizon %5s, %d games of %d ms: mean %.2f, difference %.2f +- %.2f",
+                names[h], games, gameMillis, sum / games, meanDiff, stdErr));
+        }
+    }
+}
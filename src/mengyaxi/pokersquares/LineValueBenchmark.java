@@ -0,0 +1,86 @@
+package mengyaxi.pokersquares;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import mengyaxi.pokersquares.board.Board;
+import mengyaxi.pokersquares.board.LineValueModel;
+
+/**
+ * Compares the hand-tuned line values with learned ones at a fixed rollout
+ * budget: both play the same deals, with the same number of shuffles per move
+ * of a single-threaded Monte Carlo, or greedily with a budget of 0.
+ *
+ * Usage: LineValueBenchmark [training games] [games] [shuffles per move]
+ *
+ * @author Meng
+ */
+public final class LineValueBenchmark {
+
+    private final Board board = new Board();
+    private final DeckTracker deck = new DeckTracker();
+    private final Strategy strategy = new Strategy(board, deck);
+    private final CellCandidateEvaluator evaluator = new CellCandidateEvaluator(board, deck);
+    private final List<Card> cards = new ArrayList<>(Card.NUM_CARDS);
+
+    private LineValueBenchmark(final LineValueModel lineValues) {
+        strategy.lineValues = lineValues;
+        evaluator.setLineValues(lineValues);
+    }
+
+    private int play(final long seed, final int shuffles) {
+        board.clear();
+        deck.clear();
+        strategy.clear();
+        evaluator.clear();
+        deck.getCards(cards);
+        Collections.shuffle(cards, new Random(seed));
+        for (int i = 0; i < Board.NUMBER_OF_CELLS; ++i) {
+            final Card c = cards.get(i);
+            strategy.play(c);
+            final List<CellCandidate> cans = strategy.getCandidates();
+            CellCandidate winner = cans.get(0);
+            if (cans.size() > 1 && shuffles > 0) {
+                deck.deal(c);
+                final List<Card> rest = deck.getCards();
+                deck.putBack(c);
+                evaluator.resetShuffles();
+                evaluator.setCandidates(cans);
+                do {
+                    evaluator.evaluate(c, rest);
+                } while (evaluator.getShuffles() < shuffles && cans.size() > 1);
+                winner = Collections.max(cans, CellCandidate.TOTAL_SCORE_COMPARATOR);
+            }
+            deck.deal(c);
+            board.putCard(c, winner.row, winner.col);
+        }
+        return board.getPokerHandScore();
+    }
+
+    public static void main(final String[] args) {
+        final int trainingGames = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int games = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        final int shuffles = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        final long start = System.currentTimeMillis();
+        final LineValueTrainer trainer = new LineValueTrainer(0x11e);
+        trainer.play(trainingGames, Long.MAX_VALUE);
+        System.out.println(String.format("Trained on %d games within %.2f seconds", trainer.getGames(),
+            (System.currentTimeMillis() - start) / 1000.0));
+        final LineValueBenchmark tuned = new LineValueBenchmark(null);
+        final LineValueBenchmark learned = new LineValueBenchmark(trainer.getModel());
+        double sum0 = 0, sum1 = 0, sumDiff = 0, sumDiff2 = 0;
+        for (int g = 0; g < games; ++g) {
+            final int s0 = tuned.play(g, shuffles);
+            final int s1 = learned.play(g, shuffles);
+            sum0 += s0;
+            sum1 += s1;
+            sumDiff += s1 - s0;
+            sumDiff2 += (double) (s1 - s0) * (s1 - s0);
+        }
+        final double meanDiff = sumDiff / games;
+        final double stdErr = Math.sqrt(Math.max(sumDiff2 / games - meanDiff * meanDiff, 0) / games);
+        System.out.println(String.format("%d games, %d shuffles per move: hand-tuned %.2f, learned %.2f, difference %.2f +- %.2f",
+            games, shuffles, sum0 / games, sum1 / games, meanDiff, stdErr));
+    }
+}
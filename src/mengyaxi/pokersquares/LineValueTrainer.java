@@ -0,0 +1,112 @@
+package mengyaxi.pokersquares;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import mengyaxi.pokersquares.board.Board;
+import mengyaxi.pokersquares.board.LineValueModel;
+
+/**
+ * Trains a LineValueModel on games the Strategy plays greedily against itself.
+ * Every line of every position of a game is a sample of its feature index,
+ * labelled with the final score of the line. The weight of an index is the
+ * mean of its labels, shrunk towards the mean of its pattern when it has few
+ * samples.
+ *
+ * @author Meng
+ */
+final class LineValueTrainer {
+
+    private static final int PRIOR_SAMPLES = 20; // weight of the pattern mean in a feature mean
+
+    private final Random random;
+    private final Board board = new Board();
+    private final DeckTracker deck = new DeckTracker();
+    private final Strategy strategy = new Strategy(board, deck);
+    private final List<Card> cards = new ArrayList<>(Card.NUM_CARDS);
+    private final int[] indices = new int[Board.NUMBER_OF_CELLS * 2 * Board.SIZE]; // by position and line
+    private final double[] sums = new double[LineValueModel.NUMBER_OF_FEATURES];
+    private final int[] counts = new int[LineValueModel.NUMBER_OF_FEATURES];
+    private long games;
+
+    public LineValueTrainer(final long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @param lineValues the line values of the Strategy playing the games,
+     * null for the hand-tuned ones
+     */
+    public void setLineValues(final LineValueModel lineValues) {
+        strategy.lineValues = lineValues;
+    }
+
+    /**
+     * Play games until the given number or the given time is up.
+     *
+     * @param games
+     * @param millis
+     * @return the number of games played
+     */
+    public int play(final int games, final long millis) {
+        final long start = System.currentTimeMillis();
+        int n = 0;
+        while (n < games && System.currentTimeMillis() - start < millis) {
+            playGame();
+            ++n;
+        }
+        return n;
+    }
+
+    public long getGames() {
+        return games;
+    }
+
+    private void playGame() {
+        board.clear();
+        deck.clear();
+        strategy.clear();
+        deck.getCards(cards);
+        Collections.shuffle(cards, random);
+        int k = 0;
+        for (int i = 0; i < Board.NUMBER_OF_CELLS; ++i) {
+            final double progress = board.progress();
+            for (int j = 0; j < Board.SIZE; ++j) {
+                indices[k++] = LineValueModel.indexOf(board.getRow(j), progress, deck);
+                indices[k++] = LineValueModel.indexOf(board.getCol(j), progress, deck);
+            }
+            final Card c = cards.get(i);
+            strategy.play(c);
+            final CellCandidate can = strategy.getCandidates().get(0);
+            deck.deal(c);
+            board.putCard(c, can.row, can.col);
+        }
+        for (int i = 0; i < k; ++i) {
+            final int line = i % (2 * Board.SIZE);
+            final int score = line % 2 == 0 ? board.getRowScore(line / 2) : board.getColScore(line / 2);
+            sums[indices[i]] += score;
+            ++counts[indices[i]];
+        }
+        ++games;
+    }
+
+    /**
+     * @return the model of the games played so far
+     */
+    public LineValueModel getModel() {
+        final double[] patternSums = new double[LineValueModel.NUMBER_OF_PATTERNS];
+        final int[] patternCounts = new int[LineValueModel.NUMBER_OF_PATTERNS];
+        for (int i = 0; i < sums.length; ++i) {
+            patternSums[LineValueModel.patternOf(i)] += sums[i];
+            patternCounts[LineValueModel.patternOf(i)] += counts[i];
+        }
+        final float[] weights = new float[LineValueModel.NUMBER_OF_FEATURES];
+        for (int i = 0; i < weights.length; ++i) {
+            final int p = LineValueModel.patternOf(i);
+            final double prior = patternCounts[p] > 0 ? patternSums[p] / patternCounts[p] : 0.0;
+            weights[i] = (float) ((sums[i] + PRIOR_SAMPLES * prior) / (counts[i] + PRIOR_SAMPLES));
+        }
+        return new LineValueModel(weights);
+    }
+}
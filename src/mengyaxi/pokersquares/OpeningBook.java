@@ -0,0 +1,156 @@
+package mengyaxi.pokersquares;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The best moves of frequent early positions, searched offline by
+ * OpeningBookBuilder. The file is a header followed by records sorted by key:
+ *
+ * <pre>
+ *  0 long   canonical key of the position and the card to play, see Symmetries
+ *  8 int    low bits of the canonical key of the position after the best move
+ * 12 float  expected final score of the best move
+ * </pre>
+ *
+ * The records stay in the memory mapped file and are looked up by binary
+ * search. The move is stored as the position it leads to, so that it doesn't
+ * depend on which of the equivalent orientations a game is in.
+ *
+ * @author Meng
+ */
+public final class OpeningBook implements AutoCloseable {
+
+    public static final int MAGIC = 0x50534f42; // "PSOB"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer records;
+    private final int size;
+    private final int maxCards;
+
+    /**
+     * @param path
+     * @throws IOException if the file can't be read or isn't an opening book
+     */
+    public OpeningBook(final Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                Math.min(channel.size(), HEADER_SIZE));
+            if (header.remaining() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                throw new IOException("Not an opening book");
+            }
+            if (header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE) {
+                throw new IOException("Unsupported opening book version " + header.getInt(4));
+            }
+            maxCards = header.getInt(12);
+            final long n = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+            if (n * RECORD_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("Opening book too large");
+            }
+            size = (int) n;
+            records = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) size * RECORD_SIZE);
+        } catch (final IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the number of positions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of cards on the board up to which the book has
+     * positions, exclusive
+     */
+    public int getMaxCards() {
+        return maxCards;
+    }
+
+    /**
+     * @param key the canonical key of a position and the card to play
+     * @return the index of its record, -1 if none
+     */
+    public int find(final long key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long k = records.getLong(mid * RECORD_SIZE);
+            if (k < key) {
+                low = mid + 1;
+            } else if (k > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index
+     * @return the low bits of the canonical key of the position after the best
+     * move
+     */
+    public int getMove(final int index) {
+        return records.getInt(index * RECORD_SIZE + 8);
+    }
+
+    public float getScore(final int index) {
+        return records.getFloat(index * RECORD_SIZE + 12);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Write a book, replacing the file once it is complete.
+     *
+     * @param path
+     * @param keys the canonical keys of the positions and cards, distinct
+     * @param moves the low bits of the canonical keys of the best moves
+     * @param scores the expected final scores of the best moves
+     * @param maxCards
+     * @throws IOException
+     */
+    public static void write(final Path path, final long[] keys, final int[] moves, final float[] scores,
+        final int maxCards) throws IOException {
+        final Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> Long.compare(keys[i], keys[j]));
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keys.length * RECORD_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(maxCards);
+        for (final int i : order) {
+            buffer.putLong(keys[i]).putInt(moves[i]).putFloat(scores[i]);
+        }
+        buffer.flip();
+        final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (final FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,209 @@
+package mengyaxi.pokersquares;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import mengyaxi.pokersquares.board.Board;
+import mengyaxi.pokersquares.board.LineValueModel;
+
+/**
+ * Builds an opening book: counts the contested early positions of deals the
+ * Strategy plays greedily, up to symmetry, and searches the most frequent ones
+ * with many more shuffles than a game can afford.
+ *
+ * Usage: OpeningBookBuilder file [deals] [positions] [shuffles] [max cards]
+ * [horizon] [threads] [seed]
+ *
+ * @author Meng
+ */
+public final class OpeningBookBuilder {
+
+    private final LineValueModel lineValues;
+    private final int shuffles;
+    private final int horizon;
+    private final List<Entry> entries = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    private static final class Entry {
+
+        final long key;
+        final Position position;
+        final Card card;
+        int count;
+        int move;
+        float score;
+
+        Entry(final long key, final Position position, final Card card) {
+            this.key = key;
+            this.position = position;
+            this.card = card;
+        }
+    }
+
+    private OpeningBookBuilder(final LineValueModel lineValues, final int shuffles, final int horizon) {
+        this.lineValues = lineValues;
+        this.shuffles = shuffles;
+        this.horizon = horizon;
+    }
+
+    /**
+     * Count the contested positions with fewer than the given cards.
+     *
+     * @return the number of contested moves seen
+     */
+    private long count(final int deals, final int maxCards, final long seed) {
+        final Board board = new Board();
+        final DeckTracker deck = new DeckTracker();
+        final Strategy strategy = new Strategy(board, deck);
+        strategy.lineValues = lineValues;
+        final List<Card> cards = new ArrayList<>(Card.NUM_CARDS);
+        final Random random = new Random(seed);
+        final Map<Long, Entry> counts = new HashMap<>();
+        final Symmetries symmetries = new Symmetries();
+        long moves = 0;
+        for (int d = 0; d < deals; ++d) {
+            board.clear();
+            deck.clear();
+            strategy.clear();
+            deck.getCards(cards);
+            Collections.shuffle(cards, random);
+            for (int i = 0; i < maxCards; ++i) {
+                final Card c = cards.get(i);
+                strategy.play(c);
+                final List<CellCandidate> cans = strategy.getCandidates();
+                if (cans.size() > 1) {
+                    final long key = symmetries.keyOf(board, c);
+                    counts.computeIfAbsent(key, k -> new Entry(k, Position.of(board, deck), c)).count++;
+                    ++moves;
+                }
+                final CellCandidate can = cans.get(0);
+                deck.deal(c);
+                board.putCard(c, can.row, can.col);
+            }
+        }
+        entries.addAll(counts.values());
+        entries.sort((e0, e1) -> e1.count - e0.count);
+        return moves;
+    }
+
+    private final class Searcher implements Callable<Integer> {
+
+        private final Board board = new Board();
+        private final DeckTracker deck = new DeckTracker();
+        private final Strategy strategy = new Strategy(board, deck);
+        private final CellCandidateEvaluator evaluator = new CellCandidateEvaluator(board, deck);
+        private final Symmetries symmetries = new Symmetries();
+        private final int[] grid = new int[Board.NUMBER_OF_CELLS];
+        private final int positions;
+
+        Searcher(final int positions) {
+            this.positions = positions;
+            strategy.lineValues = lineValues;
+            evaluator.setLineValues(lineValues);
+            evaluator.setHorizon(horizon);
+        }
+
+        @Override
+        public Integer call() {
+            int n = 0;
+            for (int i = next.getAndIncrement(); i < positions; i = next.getAndIncrement()) {
+                search(entries.get(i));
+                ++n;
+            }
+            return n;
+        }
+
+        private void search(final Entry e) {
+            evaluator.clear();
+            e.position.restore(board, deck);
+            strategy.clear();
+            strategy.play(e.card);
+            final List<CellCandidate> cans = strategy.getCandidates();
+            deck.deal(e.card);
+            final List<Card> rest = deck.getCards();
+            deck.putBack(e.card);
+            evaluator.resetShuffles();
+            evaluator.setCandidates(cans);
+            do {
+                evaluator.evaluate(e.card, rest);
+            } while (evaluator.getShuffles() < shuffles && cans.size() > 1);
+            final CellCandidate winner = Collections.max(cans, CellCandidate.TOTAL_SCORE_COMPARATOR);
+            Symmetries.gridOf(board, grid);
+            grid[winner.id] = e.card.id + 1;
+            e.move = (int) symmetries.keyOf(grid, null);
+            e.score = (float) winner.totalScore / Math.max(evaluator.getShuffles(), 1);
+        }
+    }
+
+    private void search(final int positions, final int threads) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Searcher> searchers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; ++i) {
+            searchers.add(new Searcher(positions));
+        }
+        try {
+            for (final Future<Integer> f : executor.invokeAll(searchers)) {
+                f.get();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (final ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: OpeningBookBuilder file [deals] [positions] [shuffles] [max cards] [horizon] [threads] [seed]");
+            return;
+        }
+        final int deals = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        final int positions = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        final int shuffles = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+        final int maxCards = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+        final int horizon = args.length > 5 ? Integer.parseInt(args[5]) : 12;
+        final int threads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+        final long seed = args.length > 7 ? Long.parseLong(args[7]) : System.nanoTime();
+        final long start = System.currentTimeMillis();
+        // the same line values as a player, for the same candidates
+        final PokerSquaresPlayer player = new PokerSquaresPlayer();
+        player.verbose = true;
+        player.trainLineValues(player.lineValueMillis);
+        final OpeningBookBuilder builder = new OpeningBookBuilder(player.getLineValues(), shuffles, horizon);
+        final long moves = builder.count(deals, maxCards, seed);
+        final int n = Math.min(positions, builder.entries.size());
+        long covered = 0;
+        for (int i = 0; i < n; ++i) {
+            covered += builder.entries.get(i).count;
+        }
+        System.out.println(String.format("%d contested moves in %d deals, %d distinct positions, the first %d cover %.1f%%",
+            moves, deals, builder.entries.size(), n, 100.0 * covered / Math.max(moves, 1)));
+        builder.search(n, threads);
+        final long[] keys = new long[n];
+        final int[] moveKeys = new int[n];
+        final float[] scores = new float[n];
+        for (int i = 0; i < n; ++i) {
+            final Entry e = builder.entries.get(i);
+            keys[i] = e.key;
+            moveKeys[i] = e.move;
+            scores[i] = e.score;
+        }
+        OpeningBook.write(Paths.get(args[0]), keys, moveKeys, scores, maxCards);
+        System.out.println(String.format("%d positions searched with %d shuffles within %.2f seconds",
+            n, shuffles, (System.currentTimeMillis() - start) / 1000.0));
+    }
+}
@@ -0,0 +1,112 @@
+package mengyaxi.pokersquares;
+
+import java.util.Arrays;
+
+/**
+ * The parallel configuration of the rollout workers: how many workers to run
+ * and from how many empty cells on the multi-threaded Monte Carlo pays off.
+ *
+ * @author Meng
+ */
+public final class Parallelism {
+
+    public static final int DEFAULT_MIN_PARALLEL_EMPTY_CELLS = 6;
+    // rollouts are slow enough early in the game for the workers to finish a
+    // shuffle at very different times, which the partitioned scheduling evens out
+    public static final int MIN_PARTITIONED_EMPTY_CELLS = 12;
+    public static final int MIN_PARTITIONED_CANDIDATES = 3;
+
+    public final int workers;
+    public final int minParallelEmptyCells;
+    public final int availableProcessors;
+    public final boolean calibrated;
+    private final int[] workerCounts;
+    private final double[] shufflesPerSecond;
+
+    Parallelism(final int workers, final int minParallelEmptyCells, final int availableProcessors,
+        final int[] workerCounts, final double[] shufflesPerSecond) {
+        this.workers = workers;
+        this.minParallelEmptyCells = minParallelEmptyCells;
+        this.availableProcessors = availableProcessors;
+        this.calibrated = workerCounts.length > 0;
+        this.workerCounts = workerCounts.clone();
+        this.shufflesPerSecond = shufflesPerSecond.clone();
+    }
+
+    /**
+     * The fixed rule used before any calibration: one worker per processor
+     * but the one of the coordinator, and no workers at all on two or fewer
+     * processors.
+     *
+     * @param n the processors available
+     * @return
+     */
+    public static Parallelism fallback(final int n) {
+        return new Parallelism(n > 2 ? n - 1 : 0, DEFAULT_MIN_PARALLEL_EMPTY_CELLS, n, new int[0], new double[0]);
+    }
+
+    public boolean isParallel() {
+        return workers > 1;
+    }
+
+    /**
+     * Whether a multi-threaded search should partition the candidates between
+     * the workers in (candidate, block of shuffles) units, rather than let
+     * every worker evaluate every candidate.
+     *
+     * @param emptyCells
+     * @param candidates
+     * @return
+     */
+    public static boolean isPartitioned(final int emptyCells, final int candidates) {
+        return emptyCells >= MIN_PARTITIONED_EMPTY_CELLS && candidates >= MIN_PARTITIONED_CANDIDATES;
+    }
+
+    /**
+     * @return the numbers of workers measured during calibration, 0 being the
+     * single-threaded Monte Carlo
+     */
+    public int[] getWorkerCounts() {
+        return workerCounts.clone();
+    }
+
+    /**
+     * @return the measured mid-game throughput for each of
+     * {@link #getWorkerCounts()}
+     */
+    public double[] getShufflesPerSecond() {
+        return shufflesPerSecond.clone();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d workers, parallel from %d empty cells, %d processors",
+            workers, minParallelEmptyCells, availableProcessors));
+        if (calibrated) {
+            sb.append(", shuffles/s by workers:");
+            for (int i = 0; i < workerCounts.length; ++i) {
+                sb.append(String.format(" %d=%.0f", workerCounts[i], shufflesPerSecond[i]));
+            }
+        } else {
+            sb.append(" (not calibrated)");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof Parallelism)) {
+            return false;
+        }
+        final Parallelism p = (Parallelism) o;
+        return workers == p.workers && minParallelEmptyCells == p.minParallelEmptyCells
+            && availableProcessors == p.availableProcessors
+            && Arrays.equals(workerCounts, p.workerCounts) && Arrays.equals(shufflesPerSecond, p.shufflesPerSecond);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * workers + minParallelEmptyCells) + availableProcessors;
+    }
+}
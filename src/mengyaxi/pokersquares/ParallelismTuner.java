@@ -0,0 +1,183 @@
+package mengyaxi.pokersquares;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Measures the rollout throughput of the engine with different numbers of
+ * workers on synthetic positions, and picks the number of workers and the
+ * switch-over point between single- and multi-threaded Monte Carlo. It also
+ * watches the CPU time the workers actually get, to tell when the host
+ * throttles them and the measurement is stale.
+ *
+ * @author Meng
+ */
+final class ParallelismTuner {
+
+    interface Trial {
+
+        /**
+         * Search the position for the given time.
+         *
+         * @param position
+         * @param card the card to play
+         * @param workers the number of workers, 0 for the single-threaded Monte
+         * Carlo
+         * @param millis
+         * @return the number of shuffles done
+         */
+        int run(Position position, Card card, int workers, long millis);
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final double MIN_GAIN = 1.05; // more workers have to be faster by at least this factor
+    private static final int TUNING_CARDS = 13; // mid-game
+    private static final int[] SWITCH_OVER_EMPTY_CELLS = {4, 5, 6, 7, 8, 10};
+    private static final int POSITIONS = 3;
+    private static final double THROTTLED_UTILIZATION = 0.75; // of worker cpu time to wall time
+    private static final int THROTTLED_MOVES = 3;
+
+    private final Trial trial;
+    private final SyntheticPositions positions;
+    private int throttledMoves = 0;
+
+    public ParallelismTuner(final Trial trial, final long seed) {
+        this.trial = trial;
+        positions = new SyntheticPositions(seed);
+    }
+
+    /**
+     * @return the cpu time of the current thread in nanoseconds, or -1 if it
+     * is not supported
+     */
+    public static long currentThreadCpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Record how much cpu time the workers got during a move.
+     *
+     * @param cpuNanos the sum of the cpu time of the workers, negative if
+     * unknown
+     * @param wallNanos the sum of the wall time of the workers
+     * @return whether the workers are throttled for too many moves in a row
+     */
+    public boolean recordUtilization(final long cpuNanos, final long wallNanos) {
+        if (cpuNanos < 0 || wallNanos <= 0) {
+            return false;
+        }
+        if ((double) cpuNanos / wallNanos < THROTTLED_UTILIZATION) {
+            ++throttledMoves;
+        } else {
+            throttledMoves = 0;
+        }
+        return throttledMoves >= THROTTLED_MOVES;
+    }
+
+    public void resetUtilization() {
+        throttledMoves = 0;
+    }
+
+    /**
+     * Calibrate within about the given time.
+     *
+     * @param millis
+     * @param availableProcessors
+     * @return
+     */
+    public Parallelism tune(final long millis, final int availableProcessors) {
+        final List<Integer> counts = workerCounts(availableProcessors);
+        if (counts.size() <= 1) {
+            return new Parallelism(0, Board.NUMBER_OF_CELLS + 1, availableProcessors, new int[0], new double[0]);
+        }
+        // a quarter for warming up, the rest split between the measurements,
+        // which go forth and back so that neither end gets the colder code
+        final long window = Math.max(3 * millis / (8 * POSITIONS * (counts.size() + SWITCH_OVER_EMPTY_CELLS.length)), 1);
+        final Position[] tuningPositions = new Position[POSITIONS];
+        final Card[] tuningCards = new Card[POSITIONS];
+        for (int i = 0; i < POSITIONS; ++i) {
+            tuningPositions[i] = positions.next(TUNING_CARDS);
+            tuningCards[i] = positions.getNextCard();
+        }
+        measure(tuningPositions, tuningCards, 0, Math.max(millis / (4 * POSITIONS), 1), new long[2]);
+        final int[] workerCounts = new int[counts.size()];
+        final long[][] samples = new long[counts.size()][2];
+        for (int i = 0; i < counts.size(); ++i) {
+            workerCounts[i] = counts.get(i);
+            measure(tuningPositions, tuningCards, workerCounts[i], window, samples[i]);
+        }
+        for (int i = counts.size() - 1; i >= 0; --i) {
+            measure(tuningPositions, tuningCards, workerCounts[i], window, samples[i]);
+        }
+        final double[] rates = new double[counts.size()];
+        int best = 0;
+        for (int i = 0; i < counts.size(); ++i) {
+            rates[i] = rate(samples[i]);
+            if (rates[i] > rates[best]) {
+                best = i;
+            }
+        }
+        for (int i = 1; i < best; ++i) { // fewer workers if they are about as fast
+            if (rates[i] * MIN_GAIN >= rates[best]) {
+                best = i;
+                break;
+            }
+        }
+        if (best == 0 || rates[best] < rates[0] * MIN_GAIN) {
+            return new Parallelism(0, Board.NUMBER_OF_CELLS + 1, availableProcessors, workerCounts, rates);
+        }
+        final int workers = workerCounts[best];
+        int minParallelEmptyCells = SWITCH_OVER_EMPTY_CELLS[SWITCH_OVER_EMPTY_CELLS.length - 1] + 1;
+        for (int i = SWITCH_OVER_EMPTY_CELLS.length - 1; i >= 0; --i) {
+            final int emptyCells = SWITCH_OVER_EMPTY_CELLS[i];
+            for (int j = 0; j < POSITIONS; ++j) {
+                tuningPositions[j] = positions.next(Board.NUMBER_OF_CELLS - emptyCells);
+                tuningCards[j] = positions.getNextCard();
+            }
+            final long[] serial = new long[2];
+            final long[] parallel = new long[2];
+            measure(tuningPositions, tuningCards, 0, window, serial);
+            measure(tuningPositions, tuningCards, workers, window, parallel);
+            measure(tuningPositions, tuningCards, 0, window, serial);
+            if (rate(parallel) < rate(serial) * MIN_GAIN) {
+                break;
+            }
+            minParallelEmptyCells = emptyCells;
+        }
+        return new Parallelism(workers, minParallelEmptyCells, availableProcessors, workerCounts, rates);
+    }
+
+    /**
+     * @param sample accumulates the number of shuffles and the elapsed
+     * nanoseconds
+     */
+    private void measure(final Position[] positions, final Card[] cards, final int workers, final long window,
+        final long[] sample) {
+        for (int i = 0; i < positions.length; ++i) {
+            final long start = System.nanoTime();
+            sample[0] += trial.run(positions[i], cards[i], workers, window);
+            sample[1] += System.nanoTime() - start;
+        }
+    }
+
+    private static double rate(final long[] sample) {
+        return sample[1] > 0 ? sample[0] * 1e9 / sample[1] : 0.0;
+    }
+
+    private static List<Integer> workerCounts(final int availableProcessors) {
+        final List<Integer> counts = new ArrayList<>();
+        counts.add(0);
+        for (int n = 2; n <= availableProcessors; n = n < 4 ? n + 1 : n + n / 2) {
+            counts.add(n);
+        }
+        for (int n = Math.max(availableProcessors - 1, 2); n <= availableProcessors; ++n) {
+            if (counts.get(counts.size() - 1) < n) {
+                counts.add(n);
+            }
+        }
+        return counts;
+    }
+}
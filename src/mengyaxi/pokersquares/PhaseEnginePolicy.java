@@ -0,0 +1,61 @@
+package mengyaxi.pokersquares;
+
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * The default policy: the Strategy alone for the first cards and when there is
+ * no time left, a shallow search when there is little time left, the exact
+ * solver for the last few cells, and a Monte Carlo engine in between. The
+ * shallow search and the exact solver are only used if enabled.
+ *
+ * @author Meng
+ */
+final class PhaseEnginePolicy implements EnginePolicy {
+
+    private final SearchEngine heuristic;
+    private final SearchEngine shallow;
+    private final SearchEngine monteCarlo;
+    private final SearchEngine exact;
+    private final int heuristicCards;
+    private final int exactEmptyCells;
+    private final long shallowMillis;
+
+    /**
+     * @param heuristic
+     * @param shallow
+     * @param monteCarlo
+     * @param exact
+     * @param heuristicCards the number of cards played by the Strategy alone
+     * @param exactEmptyCells the number of empty cells from which the exact
+     * solver plays, 0 for never
+     * @param shallowMillis the time left below which the shallow search plays,
+     * 0 for the heuristic when there is no time left
+     */
+    public PhaseEnginePolicy(final SearchEngine heuristic, final SearchEngine shallow, final SearchEngine monteCarlo,
+        final SearchEngine exact, final int heuristicCards, final int exactEmptyCells, final long shallowMillis) {
+        this.heuristic = heuristic;
+        this.shallow = shallow;
+        this.monteCarlo = monteCarlo;
+        this.exact = exact;
+        this.heuristicCards = heuristicCards;
+        this.exactEmptyCells = exactEmptyCells;
+        this.shallowMillis = shallowMillis;
+    }
+
+    @Override
+    public SearchEngine choose(final int emptyCells, final int candidates, final long millis) {
+        if (Board.NUMBER_OF_CELLS - emptyCells < heuristicCards) {
+            return heuristic;
+        }
+        if (millis < shallowMillis) {
+            return shallow;
+        }
+        if (millis < 0) {
+            return heuristic; // no time to search at all
+        }
+        if (emptyCells <= exactEmptyCells) {
+            return exact;
+        }
+        return monteCarlo;
+    }
+}
@@ -1,13 +1,24 @@
 package mengyaxi.pokersquares;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 import mengyaxi.pokersquares.board.Board;
+import mengyaxi.pokersquares.board.LineValueModel;
+import mengyaxi.pokersquares.jfr.BudgetEvent;
+import mengyaxi.pokersquares.jfr.CandidatesEvent;
+import mengyaxi.pokersquares.jfr.GameEvent;
+import mengyaxi.pokersquares.jfr.Jfr;
+import mengyaxi.pokersquares.jfr.MoveEvent;
+import mengyaxi.pokersquares.jfr.SearchEvent;
 import mengyaxi.util.Linear;
 
 /**
@@ -18,31 +29,476 @@ public class PokerSquaresPlayer {
 
     private static final Linear QUOTA = new Linear(2, 1, 15, 0.35);
     private static final int MAX_SHUFFLES = 10000;
+    private static final int MIN_SEED_SHUFFLES = 4;
+    private static final int LINE_VALUE_GAMES = 100000;
+    private static final int DETERMINISTIC_SHARE = 2; // a deterministic search stops at 1/share of the time left
+    public static final int AUTO_HORIZON = -1; // chosen by game phase
+    public static final int FULL_HORIZON = Integer.MAX_VALUE; // rollouts to the end of the game
+    private static final int[] WARM_UP_CARDS = {9, 14, 18, 21}; // stages that reach every path of the rollouts
+    static final int[] HORIZON_CARDS = {1, 5, 9, 13}; // stages at which truncated rollouts are calibrated
+    static final int[] HORIZONS = {4, 6, 8, 12, FULL_HORIZON};
+    private static final int HORIZON_POSITIONS = 3;
+    private static final int HORIZON_SHUFFLES = 5000; // shuffles per move below which rollouts are truncated
+    private static final long WARM_UP_WINDOW = 25;
+    private static final double WARM_UP_TOLERANCE = 0.05;
+    private static final int WARM_UP_STABLE_ROUNDS = 3;
 
     public boolean verbose = false;
     public boolean parallel = true;
+    public boolean partitioned = true;
+    public boolean treeSearch = false;
+    public boolean reuseRollouts = true;
+    public int heuristicCards = 0; // cards played by the Strategy alone at the start of a game
+    // empty cells from which the end of the game is solved exactly, 0 for never; not yet compared at a fixed budget
+    public int exactEmptyCells = 0;
+    // time left below which a shallow expectimax plays instead of sampling, 0 for the Strategy alone when
+    // there is no time left; not yet compared at a fixed budget
+    public long shallowMillis = 0;
+    public int shallowPlies = 1;
+    public boolean learnedLineValues = false; // instead of the hand-tuned ones, not yet compared at a fixed budget
+    public long lineValueMillis = 10000;
+    // cards a rollout plays after the candidate; AUTO_HORIZON isn't yet compared at a fixed budget
+    public int rolloutHorizon = FULL_HORIZON;
+    public long calibrationMillis = 3000;
+    public long warmUpMillis = 5000;
+    public long horizonCalibrationMillis = 3000;
+    public String openingBookFile = null; // written by OpeningBookBuilder, null for none
+    public String traceFile = null; // decisions traced in the background instead of printed, null for none
+    // moves depend on the seed and the cards only, not on time or threads, unless a search stops at its deadline
+    public boolean deterministic = false;
+    public long seed = 0; // of the deterministic mode
+    // Monte Carlo budget of the deterministic mode: full rollouts, about 15 s a game on a core
+    public int shufflesPerMove = 200;
+    // rollouts a second of quota buys, which budgets the moves in rollouts instead of wall time, 0 for wall time
+    public double fixedRolloutsPerSecond = 0;
 
     private final Board board = new Board();
     private final DeckTracker deckTracker = new DeckTracker();
     private final Strategy strategy = new Strategy(board, deckTracker);
     private final CellCandidateEvaluator candidateEvaluator = new CellCandidateEvaluator(board, deckTracker);
-    private final ExecutorService executor = Executors.newWorkStealingPool();
+    private final int processors; // the searches use
+    private final ExecutorService executor;
     private final List<CellCandidateEvaluator> workers = new ArrayList<>();
+    private final CandidatePartition partition = new CandidatePartition(MAX_SHUFFLES);
+    private final SearchEngine heuristicEngine = new HeuristicEngine();
+    private final SearchEngine monteCarloEngine = new MonteCarloEngine();
+    private final TreeSearchEngine treeSearchEngine;
+    private final SearchEngine exactEngine = new ExactEngine(board, deckTracker);
+    private final ExpectimaxEngine expectimaxEngine;
+    private final BookEngine bookEngine = new BookEngine(board);
+    private OpeningBook openingBook;
+    private String openedBookFile;
+    private DecisionTrace decisionTrace; // of traceFile
+    private String openedTraceFile;
+    private DecisionTrace trace; // where the decisions go, null for nowhere
+    private final List<SearchEngine> engines = new ArrayList<>();
+    private EnginePolicy policy;
+    private EnginePolicy customPolicy;
+    private final EngineStats engineStats = new EngineStats();
+    private LineValueModel lineValues; // null until trained
+    private MoveListener moveListener;
+
+    /**
+     * Hears of every move of the player, searched or forced.
+     */
+    interface MoveListener {
+
+        /**
+         * @param position before the card is played
+         * @param card
+         * @param candidates the candidates of the Strategy, with their
+         * qualities
+         * @param winner
+         * @param report of the search, null if the move was forced
+         */
+        void moved(Position position, Card card, List<CellCandidate> candidates, CellCandidate winner, SearchReport report);
+    }
+    // the last Monte Carlo search, whose rollouts may continue into the next one
+    private final List<CellCandidateEvaluator> lastEvaluators = new ArrayList<>();
+    private int lastSearchCards = -1;
+    private int lastWinnerId = -1;
+    private final ParallelismTuner tuner = new ParallelismTuner((p, c, n, m) -> trial(p, c, n, m, FULL_HORIZON), 0x5eed);
+    private Parallelism parallelism;
+    private boolean retune = false;
+    private double firstSearchRate = -1.0;
+    private final RolloutStats rolloutStats = new RolloutStats();
+    private final EngineMetrics metrics = new EngineMetrics();
+    private int gameNumber;
+    private int searchedMoves; // in the current game
+    private GameEvent gameEvent; // of the current game, null if events aren't available
+    private final double[][] horizonRates = new double[HORIZON_CARDS.length][]; // shuffles/s by stage and horizon
+    private boolean lastPartitioned; // of the last multi-threaded search
+    private long lastWorkerCpuNanos;
+    // the fixed-work clock of the current game
+    private long gameMillis;
+    private double chargedMillis;
+    private long gameRollouts; // charged
+    private long gameWallNanos;
+    private int deadlineStops; // deterministic searches of the current game stopped at their deadline
+
+    public PokerSquaresPlayer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param processors the most processors the searches use, for players
+     * sharing a machine
+     */
+    public PokerSquaresPlayer(final int processors) {
+        this.processors = Math.max(processors, 1);
+        executor = Executors.newWorkStealingPool(this.processors);
+        treeSearchEngine = new TreeSearchEngine(board, deckTracker, executor);
+        expectimaxEngine = new ExpectimaxEngine(board, deckTracker, executor);
+        parallelism = Parallelism.fallback(this.processors);
+    }
+
+    /**
+     * The flat Monte Carlo of the CellCandidateEvaluators.
+     */
+    private final class MonteCarloEngine implements SearchEngine {
+
+        @Override
+        public String getName() {
+            return "monte-carlo";
+        }
+
+        @Override
+        public void clear() {
+            lastEvaluators.clear();
+            lastSearchCards = -1;
+        }
+
+        @Override
+        public CellCandidate search(final Card card, final List<CellCandidate> candidates, final long millis,
+            final SearchReport report) {
+            return monteCarloGuess(card, candidates, millis, report);
+        }
+
+        @Override
+        public void played(final Card card, final int row, final int col) {
+        }
+    }
 
     public final void init() {
+        ++gameNumber;
+        searchedMoves = 0;
+        if (Jfr.AVAILABLE) {
+            gameEvent = new GameEvent();
+            gameEvent.begin();
+        }
+        if (parallel && retune) {
+            calibrate(calibrationMillis / 2);
+        }
         candidateEvaluator.clear();
         strategy.clear();
-        strategy.verbose = this.verbose;
-        workers.clear();
+        board.clear();
+        deckTracker.clear();
+        setNumberOfWorkers(parallel ? parallelism.workers : 0);
+        treeSearchEngine.setNumberOfTrees(treeSearch ? Math.max(workers.size(), 1) : 0);
+        treeSearchEngine.fixedRolloutsPerSecond = fixedRolloutsPerSecond;
+        expectimaxEngine.setNumberOfSearchers(Math.max(workers.size(), 1));
+        expectimaxEngine.setPlies(shallowPlies);
+        applyLineValues();
+        openBook();
+        openTrace();
+        setTrace(decisionTrace != null ? decisionTrace : verbose ? DecisionTrace.STDOUT : null);
+        final SearchEngine sampling = treeSearch && !deterministic ? treeSearchEngine : monteCarloEngine;
+        engines.clear();
+        engines.add(heuristicEngine);
+        engines.add(expectimaxEngine);
+        engines.add(sampling);
+        engines.add(exactEngine);
+        engines.add(bookEngine);
+        for (final SearchEngine engine : engines) {
+            engine.clear();
+        }
+        policy = customPolicy != null ? customPolicy
+            : new PhaseEnginePolicy(heuristicEngine, expectimaxEngine, sampling, exactEngine, heuristicCards,
+                exactEmptyCells, shallowMillis);
+        System.gc();
+    }
+
+    /**
+     * Measure the rollout throughput with different numbers of workers and
+     * configure the parallelism accordingly. It takes about the given time and
+     * is meant to be called outside of the timed window of a game.
+     *
+     * @param millis
+     */
+    public final void calibrate(final long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        final int n = processors;
+        setNumberOfWorkers(n);
+        final boolean v = verbose;
+        final DecisionTrace tracing = trace;
+        verbose = false;
+        setTrace(null);
+        parallelism = tuner.tune(millis, n);
+        tuner.resetUtilization();
+        verbose = v;
+        setTrace(tracing);
+        retune = false;
+        setNumberOfWorkers(parallelism.workers);
+        if (verbose) {
+            System.out.println("Parallelism: " + parallelism);
+        }
+    }
+
+    /**
+     * Train line values on self-play games of the Strategy, used from the next
+     * game on if learnedLineValues is set. It takes up to the given time and is
+     * meant to be called outside of the timed window of a game. The values
+     * only depend on the number of games, so they are the same from run to
+     * run unless the time runs out first, which the deterministic mode can't
+     * rule out.
+     *
+     * @param millis
+     */
+    public final void trainLineValues(final long millis) {
+        if (millis <= 0 || !learnedLineValues) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final LineValueTrainer trainer = new LineValueTrainer(0x11e);
+        trainer.play(LINE_VALUE_GAMES, millis);
+        if (deterministic && trainer.getGames() < LINE_VALUE_GAMES) {
+            System.out.println(String.format("Line values trained on %d of %d games only, moves depend on timing",
+                trainer.getGames(), LINE_VALUE_GAMES));
+        }
+        lineValues = trainer.getModel();
+        applyLineValues();
+        if (verbose) {
+            System.out.println(String.format("Trained line values on %d games within %.2f seconds",
+                trainer.getGames(), (System.currentTimeMillis() - start) / 1000.0));
+        }
+    }
+
+    final LineValueModel getLineValues() {
+        return learnedLineValues ? lineValues : null;
+    }
+
+    private void applyLineValues() {
+        strategy.lineValues = getLineValues();
+        candidateEvaluator.setLineValues(getLineValues());
+        for (final CellCandidateEvaluator worker : workers) {
+            worker.setLineValues(getLineValues());
+        }
+        treeSearchEngine.setLineValues(getLineValues());
+        expectimaxEngine.setLineValues(getLineValues());
+    }
+
+    /**
+     * Open the opening book file if it changed, once per game at most.
+     */
+    private void openBook() {
+        if (Objects.equals(openingBookFile, openedBookFile)) {
+            return;
+        }
+        if (openingBook != null) {
+            try {
+                openingBook.close();
+            } catch (final IOException ex) {
+                ex.printStackTrace(System.out);
+            }
+            openingBook = null;
+        }
+        if (openingBookFile != null) {
+            try {
+                openingBook = new OpeningBook(Paths.get(openingBookFile));
+                if (verbose) {
+                    System.out.println(String.format("Opening book: %d positions up to %d cards",
+                        openingBook.size(), openingBook.getMaxCards()));
+                }
+            } catch (final IOException ex) {
+                System.out.println("Opening book not loaded: " + ex.getMessage());
+            }
+        }
+        openedBookFile = openingBookFile;
+        bookEngine.setBook(openingBook);
+    }
+
+    /**
+     * Open the trace file if it changed, once per game at most.
+     */
+    private void openTrace() {
+        if (Objects.equals(traceFile, openedTraceFile)) {
+            return;
+        }
+        if (decisionTrace != null) {
+            try {
+                decisionTrace.close();
+            } catch (final IOException ex) {
+                ex.printStackTrace(System.out);
+            }
+            decisionTrace = null;
+        }
+        if (traceFile != null) {
+            try {
+                decisionTrace = DecisionTrace.open(Paths.get(traceFile), DecisionTrace.DEFAULT_CAPACITY);
+            } catch (final IOException ex) {
+                System.out.println("Decision trace not opened: " + ex.getMessage());
+            }
+        }
+        openedTraceFile = traceFile;
+    }
+
+    private void setTrace(final DecisionTrace trace) {
+        this.trace = trace;
+        strategy.trace = trace;
+        treeSearchEngine.trace = trace;
+    }
+
+    public final Parallelism getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Run synthetic searches from several stages of the game until their
+     * throughput stabilises or the given time is up, so that the first moves
+     * of the first game don't run in the interpreter. When parallel, the
+     * searches run on a worker per processor, the pool the calibration then
+     * measures, so that every worker is warmed up. It is meant to be called
+     * outside of the timed window of a game, before the calibration.
+     *
+     * @param millis
+     * @return the shuffles per second of the last round
+     */
+    public final double warmUp(final long millis) {
+        if (millis <= 0) {
+            return 0.0;
+        }
+        final long start = System.currentTimeMillis();
+        final long deadline = start + millis;
+        final SyntheticPositions synthetic = new SyntheticPositions(0xbeef);
+        final Position[] positions = new Position[WARM_UP_CARDS.length];
+        final Card[] cards = new Card[WARM_UP_CARDS.length];
+        for (int i = 0; i < positions.length; ++i) {
+            positions[i] = synthetic.next(WARM_UP_CARDS[i]);
+            cards[i] = synthetic.getNextCard();
+        }
         if (parallel) {
-            int n = Runtime.getRuntime().availableProcessors();
-            n = n > 2 ? n - 1 : 0;
-            while (workers.size() < n) {
-                final CellCandidateEvaluator worker = new CellCandidateEvaluator();
-                workers.add(worker);
+            setNumberOfWorkers(Math.max(workers.size(), processors));
+        }
+        final boolean v = verbose;
+        final DecisionTrace tracing = trace;
+        verbose = false;
+        setTrace(null);
+        // the speed of a round is the geometric mean of the speed-ups of the
+        // positions over the first round; it is stable when it stops
+        // improving by more than the tolerance
+        final double[] baseRates = new double[positions.length];
+        double rate = 0.0;
+        double bestSpeedUp = 0.0;
+        int rounds = 0;
+        int stableRounds = 0;
+        while (stableRounds < WARM_UP_STABLE_ROUNDS && System.currentTimeMillis() < deadline) {
+            long shuffles = 0;
+            long nanos = 0;
+            double logSpeedUp = 0.0;
+            for (int i = 0; i < positions.length; ++i) {
+                final int n = parallel ? workers.size() : 0;
+                final long t = System.nanoTime();
+                final int s = trial(positions[i], cards[i], n, WARM_UP_WINDOW, FULL_HORIZON);
+                final long d = System.nanoTime() - t;
+                shuffles += s;
+                nanos += d;
+                final double r = Math.max(s, 1) * 1e9 / d;
+                if (rounds == 0) {
+                    baseRates[i] = r;
+                }
+                logSpeedUp += Math.log(r / baseRates[i]);
+            }
+            final double speedUp = Math.exp(logSpeedUp / positions.length);
+            if (speedUp > bestSpeedUp * (1 + WARM_UP_TOLERANCE)) {
+                bestSpeedUp = speedUp;
+                stableRounds = 0;
+            } else {
+                ++stableRounds;
             }
+            rate = shuffles * 1e9 / nanos;
+            ++rounds;
         }
-        System.gc();
+        verbose = v;
+        setTrace(tracing);
+        tuner.resetUtilization();
+        if (verbose) {
+            System.out.println(String.format("Warmed up in %d rounds within %.2f seconds: %.0f shuffles/s, %.2fx faster%s",
+                rounds, (System.currentTimeMillis() - start) / 1000.0, rate, bestSpeedUp,
+                stableRounds < WARM_UP_STABLE_ROUNDS ? " (not stable)" : ""));
+        }
+        return rate;
+    }
+
+    /**
+     * @return the shuffles per second of the first Monte Carlo search since
+     * this player was created, negative if there hasn't been any
+     */
+    public final double getFirstSearchShufflesPerSecond() {
+        return firstSearchRate;
+    }
+
+    /**
+     * @return the rollout throughput of the Monte Carlo searches by game
+     * stage since this player was created
+     */
+    public final RolloutStats getRolloutStats() {
+        return rolloutStats;
+    }
+
+    /**
+     * @return the metrics of the moves since this player was created
+     */
+    public final EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the time charged to the current or last game in the fixed-work
+     * mode, in milliseconds
+     */
+    public final double getChargedMillis() {
+        return chargedMillis;
+    }
+
+    /**
+     * @return the wall time the moves of the current or last game took, in
+     * milliseconds
+     */
+    public final double getWallMillis() {
+        return gameWallNanos / 1e6;
+    }
+
+    /**
+     * @return the reports of the searches summed by engine since this player
+     * was created
+     */
+    public final EngineStats getEngineStats() {
+        return engineStats;
+    }
+
+    /**
+     * Replace the phase policy of the engines, from the next game on.
+     *
+     * @param policy null to restore the phase policy
+     */
+    final void setEnginePolicy(final EnginePolicy policy) {
+        customPolicy = policy;
+    }
+
+    final void setMoveListener(final MoveListener moveListener) {
+        this.moveListener = moveListener;
+    }
+
+    /**
+     * Use line values trained elsewhere, so that players can share them.
+     *
+     * @param lineValues
+     */
+    final void setLineValues(final LineValueModel lineValues) {
+        this.lineValues = lineValues;
+        applyLineValues();
     }
 
     public final String getName() {
@@ -50,88 +506,456 @@ public class PokerSquaresPlayer {
     }
 
     protected final int[] getPlay(final Card card, long millisRemaining) {
-        if (verbose) {
-            System.out.println(String.format("Get card \"%s\". Remaining seconds: %.2f", card, millisRemaining / 1000.0));
+        final long moveStartNanos = System.nanoTime();
+        final MoveEvent moveEvent = Jfr.AVAILABLE ? new MoveEvent() : null;
+        if (moveEvent != null) {
+            moveEvent.begin();
+            moveEvent.millisRemaining = millisRemaining;
+        }
+        if (board.isEmpty()) {
+            gameMillis = millisRemaining;
+            chargedMillis = 0.0;
+            gameRollouts = 0;
+            gameWallNanos = 0;
+            deadlineStops = 0;
+        }
+        if (fixedRolloutsPerSecond > 0) {
+            millisRemaining = gameMillis - (long) Math.ceil(chargedMillis);
+        }
+        if (trace != null) {
+            trace.card(card, millisRemaining);
+        }
+        final CandidatesEvent candidatesEvent = Jfr.AVAILABLE ? new CandidatesEvent() : null;
+        if (candidatesEvent != null) {
+            candidatesEvent.begin();
         }
         strategy.play(card);
         final List<CellCandidate> cans = strategy.getCandidates();
+        if (candidatesEvent != null && candidatesEvent.shouldCommit()) {
+            candidatesEvent.emptyCells = board.numberOfEmptyCells();
+            candidatesEvent.candidates = cans.size();
+            candidatesEvent.commit();
+        }
+        final int candidates = cans.size();
+        final Position position = moveListener != null ? Position.of(board, deckTracker) : null;
+        List<CellCandidate> raw = null;
+        SearchReport report = null;
         CellCandidate winner;
         if (cans.size() == 1) {
             winner = cans.get(0);
         } else {
-            if (verbose) {
-                System.out.print(cans.size() + " candidates: ");
-                cans.stream().forEach((c) -> {
-                    System.out.print(String.format(" (%d,%d: q=%.2f)", c.row + 1, c.col + 1, c.quality));
-                });
-                System.out.println();
-            }
-            final int contingency = 50 * board.numberOfEmptyCells() - 70;
-            strategy.verbose = false;
-            if (millisRemaining < contingency) {
-                if (verbose) {
-                    System.out.println("No time for trials.");
+            if (moveListener != null) {
+                raw = new ArrayList<>(cans.size());
+                for (final CellCandidate c : cans) {
+                    final CellCandidate r = new CellCandidate(c.row, c.col);
+                    r.quality = c.quality;
+                    raw.add(r);
+                }
+            }
+            if (trace != null) {
+                trace.candidates(DecisionTrace.CANDIDATES, cans);
+            }
+            final int emptyCells = board.numberOfEmptyCells();
+            final int contingency = 50 * emptyCells - 70;
+            millisRemaining -= contingency;
+            final SearchEngine engine = bookEngine.probe(card, cans) ? bookEngine
+                : policy.choose(emptyCells, cans.size(),
+                    deterministic && fixedRolloutsPerSecond <= 0 ? Long.MAX_VALUE : millisRemaining);
+            // a deterministic search is budgeted in shuffles, its quota is only
+            // the deadline that keeps the game within its time
+            final long quota = deterministic && fixedRolloutsPerSecond <= 0
+                ? Math.max(millisRemaining / DETERMINISTIC_SHARE, 1)
+                : Math.max((long) Math.floor(millisRemaining * QUOTA.apply((double) emptyCells)), 1);
+            if (Jfr.AVAILABLE) {
+                final BudgetEvent budgetEvent = new BudgetEvent();
+                if (budgetEvent.shouldCommit()) {
+                    budgetEvent.emptyCells = emptyCells;
+                    budgetEvent.engine = engine.getName();
+                    budgetEvent.millisRemaining = millisRemaining + contingency;
+                    budgetEvent.contingencyMillis = contingency;
+                    budgetEvent.quotaMillis = quota;
+                    budgetEvent.commit();
                 }
-                winner = cans.get(0);
-            } else {
-                millisRemaining -= contingency;
-                final long quota = Math.max((long) Math.floor(millisRemaining * QUOTA.apply((double) board.numberOfEmptyCells())), 1);
-                winner = monteCarloGuess(card, cans, quota);
             }
-            strategy.verbose = this.verbose;
+            ++searchedMoves;
+            if (trace != null) {
+                trace.engine(engine.getName(), quota);
+            }
+            report = new SearchReport(engine.getName(), emptyCells, cans.size(), quota);
+            strategy.trace = null;
+            final long startNanos = System.nanoTime();
+            winner = engine.search(card, cans, quota, report);
+            report.nanos = System.nanoTime() - startNanos;
+            metrics.recordSearch(candidates, cans.size(), report.rollouts, quota * 1000000, report.nanos);
+            strategy.trace = trace;
+            // only the sampling engines are budgeted in rollouts, the others
+            // are exhaustive and take a few milliseconds
+            if (fixedRolloutsPerSecond > 0 && (engine == monteCarloEngine || engine == treeSearchEngine)) {
+                chargedMillis += report.rollouts * 1000.0 / fixedRolloutsPerSecond;
+                gameRollouts += report.rollouts;
+            }
+            engineStats.add(report);
+            if (trace != null) {
+                trace.report(report);
+            }
+        }
+        for (final SearchEngine engine : engines) {
+            engine.played(card, winner.row, winner.col);
+        }
+        if (moveListener != null) {
+            moveListener.moved(position, card, raw != null ? raw : cans, winner, report);
         }
         deckTracker.deal(card);
         board.putCard(card, winner.row, winner.col);
-        if (verbose) {
-            System.out.println(String.format("Play \"%s\" at (%d, %d)", card, winner.row + 1, winner.col + 1));
+        if (trace != null) {
+            trace.play(card, winner.row, winner.col);
+        }
+        gameWallNanos += System.nanoTime() - moveStartNanos;
+        if (verbose && decisionTrace == null && board.numberOfEmptyCells() == 0) {
+            System.out.print(rolloutStats);
+            System.out.print(engineStats);
+            if (fixedRolloutsPerSecond > 0) {
+                System.out.println(String.format("Fixed work: %d rollouts charged %.2f of %.2f seconds, %.2f seconds of wall time",
+                    gameRollouts, chargedMillis / 1000.0, gameMillis / 1000.0, gameWallNanos / 1e9));
+            }
+            if (deadlineStops > 0) {
+                System.out.println(String.format("Deterministic searches stopped at their deadline: %d, moves depend on timing",
+                    deadlineStops));
+            }
+        }
+        metrics.recordMove(System.nanoTime() - moveStartNanos);
+        if (moveEvent != null && moveEvent.shouldCommit()) {
+            moveEvent.game = gameNumber;
+            moveEvent.card = card.toString();
+            moveEvent.emptyCells = board.numberOfEmptyCells() + 1;
+            moveEvent.candidates = candidates;
+            moveEvent.engine = report != null ? report.engine : null;
+            moveEvent.cell = winner.id;
+            moveEvent.commit();
+        }
+        if (gameEvent != null && board.numberOfEmptyCells() == 0) {
+            if (gameEvent.shouldCommit()) {
+                gameEvent.game = gameNumber;
+                gameEvent.score = board.getPokerHandScore();
+                gameEvent.searchedMoves = searchedMoves;
+                gameEvent.commit();
+            }
+            gameEvent = null;
         }
         return new int[]{winner.row, winner.col};
     }
 
-    private CellCandidate monteCarloGuess(final Card card, final List<CellCandidate> candidates, final long millisRemaining) {
-        if (verbose) {
-            System.out.println(String.format("Time Quota: %.2f seconds", millisRemaining / 1000.0));
+    private CellCandidate monteCarloGuess(final Card card, final List<CellCandidate> candidates, final long millisRemaining,
+        final SearchReport report) {
+        final SearchEvent event = Jfr.AVAILABLE ? new SearchEvent() : null;
+        if (event != null) {
+            event.begin();
+            event.candidates = candidates.size();
         }
         final long startMillis = System.currentTimeMillis();
-        final long deadline = startMillis + millisRemaining;
+        final long startNanos = System.nanoTime();
+        final boolean fixedWork = fixedRolloutsPerSecond > 0;
+        final long deadline = fixedWork ? Long.MAX_VALUE : startMillis + millisRemaining;
+        final int maxShuffles = fixedWork
+            ? (int) Math.max(Math.min(millisRemaining * fixedRolloutsPerSecond / 1000, MAX_SHUFFLES), 1)
+            : deterministic ? Math.min(shufflesPerMove, MAX_SHUFFLES) : MAX_SHUFFLES;
         int shuffles;
         deckTracker.deal(card);
         final List<Card> cards = deckTracker.getCards();
         deckTracker.putBack(card);
-        if (parallel && workers.size() > 1 && board.numberOfEmptyCells() > 5) {
-            shuffles = multiThreadMonteCarlo(card, cards, candidates, deadline);
+        final boolean multiThreaded = parallel && workers.size() > 1
+            && board.numberOfEmptyCells() >= parallelism.minParallelEmptyCells;
+        final int seeded = deterministic ? 0 : seed(card, candidates);
+        final int horizon = deterministic || fixedWork ? (rolloutHorizon == AUTO_HORIZON ? FULL_HORIZON : rolloutHorizon)
+            : chooseHorizon(board.numberOfEmptyCells(), millisRemaining);
+        if (deterministic) {
+            shuffles = deterministicMonteCarlo(card, candidates, multiThreaded, deadline, horizon, maxShuffles);
+            if (shuffles < maxShuffles && candidates.size() > 1) {
+                ++deadlineStops;
+            }
+        } else if (multiThreaded) {
+            shuffles = parallelMonteCarlo(card, candidates, deadline, workers, horizon, maxShuffles);
         } else {
-            shuffles = singleThreadMonteCarlo(card, cards, candidates, deadline);
+            shuffles = singleThreadMonteCarlo(card, cards, candidates, deadline, horizon, maxShuffles);
         }
         final CellCandidate winner = Collections.max(candidates, CellCandidate.TOTAL_SCORE_COMPARATOR);
-        if (verbose) {
-            System.out.println(String.format("%d shuffles completed within %.2f seconds",
-                shuffles, (System.currentTimeMillis() - startMillis) / 1000.0));
-            System.out.print(candidates.size() + " candidates left:");
-            candidates.stream().forEach((c) -> {
-                System.out.print(String.format(" (%d,%d: q=%.2f, s=%.2f)", c.row + 1, c.col + 1, c.quality, (double) c.totalScore / shuffles));
-            });
-            System.out.println();
+        final long nanos = System.nanoTime() - startNanos;
+        lastEvaluators.clear();
+        if (multiThreaded) {
+            lastEvaluators.addAll(workers);
+        } else {
+            lastEvaluators.add(candidateEvaluator);
+        }
+        lastSearchCards = board.numberOfCards();
+        lastWinnerId = winner.id;
+        report.rollouts = shuffles;
+        if (shuffles + seeded > 0) {
+            for (final CellCandidate c : candidates) {
+                report.candidateScores[c.id] = (double) c.totalScore / (shuffles + seeded);
+            }
+        }
+        if (multiThreaded) {
+            rolloutStats.add(board.numberOfEmptyCells(), shuffles, nanos);
+            for (int i = 0; i < workers.size(); ++i) {
+                final CellCandidateEvaluator worker = workers.get(i);
+                metrics.recordWorker(i, worker.getShuffles(), worker.getNestedSearches(), worker.getWallNanos());
+            }
+            rolloutStats.addUtilization(lastPartitioned, lastWorkerCpuNanos, nanos, workers.size());
+        } else {
+            rolloutStats.add(board.numberOfEmptyCells(), shuffles, nanos);
+            metrics.recordWorker(0, candidateEvaluator.getShuffles(), candidateEvaluator.getNestedSearches(), nanos);
+        }
+        if (firstSearchRate < 0) {
+            firstSearchRate = shuffles * 1e9 / Math.max(nanos, 1);
+            if (trace != null) {
+                trace.firstSearch(firstSearchRate);
+            }
+        }
+        if (trace != null) {
+            trace.search(shuffles, System.currentTimeMillis() - startMillis, seeded,
+                horizon < board.numberOfEmptyCells() - 1 ? horizon : -1);
+            trace.candidatesLeft(candidates, shuffles + seeded);
+        }
+        if (event != null && event.shouldCommit()) {
+            event.emptyCells = board.numberOfEmptyCells();
+            event.candidatesLeft = candidates.size();
+            event.quotaMillis = millisRemaining;
+            event.shuffles = shuffles;
+            event.seeded = seeded;
+            event.horizon = horizon;
+            event.workers = multiThreaded ? workers.size() : 1;
+            event.commit();
         }
         return winner;
     }
 
-    private int singleThreadMonteCarlo(final Card card, final List<Card> cards, final List<CellCandidate> candidates, final long deadline) {
+    /**
+     * @param emptyCells
+     * @param millis the time quota of the search
+     * @return the horizon of the rollouts
+     */
+    private int chooseHorizon(final int emptyCells, final long millis) {
+        if (rolloutHorizon != AUTO_HORIZON) {
+            return rolloutHorizon;
+        }
+        // the latest calibrated stage that isn't later than the position
+        int stage = -1;
+        while (stage + 1 < HORIZON_CARDS.length
+            && Board.NUMBER_OF_CELLS - HORIZON_CARDS[stage + 1] >= emptyCells) {
+            ++stage;
+        }
+        if (stage < 0 || horizonRates[stage] == null) {
+            return FULL_HORIZON;
+        }
+        // the longest horizon that still gets enough shuffles, the shortest
+        // one if none does
+        for (int i = HORIZONS.length - 1; i >= 0; --i) {
+            if (horizonRates[stage][i] * millis / 1000 >= HORIZON_SHUFFLES) {
+                return HORIZONS[i];
+            }
+        }
+        return HORIZONS[0];
+    }
+
+    /**
+     * Measure the rollout throughput of every horizon at several stages of
+     * the game, for the horizons to be chosen by phase. It takes about the
+     * given time and is meant to be called outside of the timed window of a
+     * game, after the parallelism is calibrated.
+     *
+     * @param millis
+     */
+    public final void calibrateHorizons(final long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final long window = Math.max(millis / (HORIZON_CARDS.length * HORIZONS.length * HORIZON_POSITIONS), 1);
+        final SyntheticPositions synthetic = new SyntheticPositions(0xface);
+        final boolean v = verbose;
+        final DecisionTrace tracing = trace;
+        verbose = false;
+        setTrace(null);
+        for (int i = 0; i < HORIZON_CARDS.length; ++i) {
+            final Position[] positions = new Position[HORIZON_POSITIONS];
+            final Card[] cards = new Card[HORIZON_POSITIONS];
+            for (int k = 0; k < positions.length; ++k) {
+                positions[k] = synthetic.next(HORIZON_CARDS[i]);
+                cards[k] = synthetic.getNextCard();
+            }
+            final int n = parallel && positions[0].numberOfEmptyCells() >= parallelism.minParallelEmptyCells
+                ? workers.size() : 0;
+            final double[] rates = new double[HORIZONS.length];
+            for (int j = 0; j < HORIZONS.length; ++j) {
+                long shuffles = 0;
+                long nanos = 0;
+                for (int k = 0; k < positions.length; ++k) {
+                    final long t = System.nanoTime();
+                    shuffles += trial(positions[k], cards[k], n, window, HORIZONS[j]);
+                    nanos += System.nanoTime() - t;
+                }
+                rates[j] = shuffles * 1e9 / Math.max(nanos, 1);
+            }
+            horizonRates[i] = rates;
+        }
+        verbose = v;
+        setTrace(tracing);
+        if (verbose) {
+            System.out.println(String.format("Calibrated horizons within %.2f seconds", (System.currentTimeMillis() - start) / 1000.0));
+            System.out.print(getHorizonRates());
+        }
+    }
+
+    /**
+     * @return the table of the shuffles per second by stage and horizon
+     * measured by the last calibration of the horizons
+     */
+    public final String getHorizonRates() {
+        final StringBuilder sb = new StringBuilder("Empty cells");
+        for (final int h : HORIZONS) {
+            sb.append(h == FULL_HORIZON ? String.format("%10s", "full") : String.format("%10d", h));
+        }
+        sb.append('\n');
+        for (int i = 0; i < HORIZON_CARDS.length; ++i) {
+            sb.append(String.format("%11d", Board.NUMBER_OF_CELLS - HORIZON_CARDS[i]));
+            for (int j = 0; j < HORIZONS.length; ++j) {
+                sb.append(String.format("%10.0f", horizonRates[i] != null ? horizonRates[i][j] : 0.0));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Seed the totals of the candidates with the rollouts of the last search
+     * that went on with its winner and this card. Given the card, the rest of
+     * those rollouts is as random as new shuffles, so they count as shuffles
+     * of this search. The totals of every candidate are scaled to the same
+     * number of shuffles, the least any candidate has.
+     *
+     * @return the number of shuffles seeded
+     */
+    private int seed(final Card card, final List<CellCandidate> candidates) {
+        if (!reuseRollouts || lastSearchCards != board.numberOfCards() - 1
+            || board.getLastPlay().row * Board.SIZE + board.getLastPlay().col != lastWinnerId) {
+            return 0;
+        }
+        final long[] scores = new long[Board.NUMBER_OF_CELLS];
+        final int[] counts = new int[Board.NUMBER_OF_CELLS];
+        for (final CellCandidateEvaluator evaluator : lastEvaluators) {
+            evaluator.addContinuations(lastWinnerId, card, scores, counts);
+        }
+        int n = Integer.MAX_VALUE;
+        for (final CellCandidate c : candidates) {
+            n = Integer.min(n, counts[c.id]);
+        }
+        if (n < MIN_SEED_SHUFFLES) {
+            return 0;
+        }
+        for (final CellCandidate c : candidates) {
+            c.totalScore = (int) Math.round((double) scores[c.id] * n / counts[c.id]);
+        }
+        return n;
+    }
+
+    private int singleThreadMonteCarlo(final Card card, final List<Card> cards, final List<CellCandidate> candidates,
+        final long deadline, final int horizon, final int maxShuffles) {
+        candidateEvaluator.setRecordContinuations(reuseRollouts);
+        candidateEvaluator.setHorizon(horizon);
         candidateEvaluator.resetShuffles();
         candidateEvaluator.setCandidates(candidates);
         do {
             candidateEvaluator.evaluate(card, cards);
-        } while (candidateEvaluator.getShuffles() < MAX_SHUFFLES && System.currentTimeMillis() < deadline && candidates.size() > 1);
+        } while (candidateEvaluator.getShuffles() < maxShuffles && System.currentTimeMillis() < deadline && candidates.size() > 1);
         return candidateEvaluator.getShuffles();
     }
 
-    private int multiThreadMonteCarlo(final Card card, final List<Card> cards, final List<CellCandidate> candidates, final long deadline) {
-        if (verbose) {
-            System.out.println(String.format("%d workers are working", workers.size()));
+    private void setNumberOfWorkers(final int n) {
+        while (workers.size() > n) {
+            workers.remove(workers.size() - 1);
+        }
+        while (workers.size() < n) {
+            final CellCandidateEvaluator worker = new CellCandidateEvaluator();
+            worker.setLineValues(getLineValues());
+            workers.add(worker);
         }
+    }
+
+    private int trial(final Position position, final Card card, final int numberOfWorkers, final long millis,
+        final int horizon) {
+        position.restore(board, deckTracker);
+        strategy.play(card);
+        final List<CellCandidate> candidates = strategy.getCandidates();
+        final long deadline = System.currentTimeMillis() + millis;
+        final int shuffles;
+        if (numberOfWorkers > 1) {
+            shuffles = parallelMonteCarlo(card, candidates, deadline, workers.subList(0, numberOfWorkers), horizon,
+                MAX_SHUFFLES);
+        } else {
+            deckTracker.deal(card);
+            final List<Card> cards = deckTracker.getCards();
+            deckTracker.putBack(card);
+            shuffles = singleThreadMonteCarlo(card, cards, candidates, deadline, horizon, MAX_SHUFFLES);
+        }
+        board.clear();
+        deckTracker.clear();
+        strategy.clear();
+        return shuffles;
+    }
+
+    /**
+     * A partitioned Monte Carlo of the given shuffles, seeded from the
+     * seed, the position and the card. The shuffles of a block only depend on that
+     * seed and the blocks are scored in order, so the result is the same
+     * whatever the timing and the number of workers. No rollouts are reused,
+     * as that depends on the timing. As the seed doesn't depend on the games
+     * played before, a run resumed from a checkpoint plays as the
+     * uninterrupted one.
+     *
+     * The search stops at the deadline, half the time left in the game, if
+     * the shuffles take longer, so that the game doesn't lose on time. Its
+     * result then depends on the timing; shufflesPerMove is meant to be small
+     * enough for this not to happen.
+     */
+    private int deterministicMonteCarlo(final Card card, final List<CellCandidate> candidates, final boolean multiThreaded,
+        final long deadline, final int horizon, final int maxShuffles) {
+        final Position position = Position.of(board, deckTracker);
+        final long searchSeed = Position.mix(seed + 0x9e3779b97f4a7c15L * (card.id + 1) ^ position.key());
+        final List<CellCandidateEvaluator> evaluators = multiThreaded ? workers : Collections.singletonList(candidateEvaluator);
+        for (final CellCandidateEvaluator evaluator : evaluators) {
+            evaluator.setRecordContinuations(false);
+            evaluator.setHorizon(horizon);
+        }
+        if (multiThreaded) {
+            return partitionedMonteCarlo(card, candidates, deadline, workers, searchSeed, maxShuffles);
+        }
+        partition.init(position, card, candidates, searchSeed, deadline, maxShuffles);
+        return candidateEvaluator.evaluatePartition(partition, candidates);
+    }
+
+    private int parallelMonteCarlo(final Card card, final List<CellCandidate> candidates, final long deadline,
+        final List<CellCandidateEvaluator> workers, final int horizon, final int maxShuffles) {
+        for (final CellCandidateEvaluator worker : workers) {
+            worker.setRecordContinuations(reuseRollouts);
+            worker.setHorizon(horizon);
+        }
+        if (partitioned && Parallelism.isPartitioned(board.numberOfEmptyCells(), candidates.size())) {
+            return partitionedMonteCarlo(card, candidates, deadline, workers, ThreadLocalRandom.current().nextLong(),
+                maxShuffles);
+        }
+        return multiThreadMonteCarlo(card, candidates, deadline, workers, maxShuffles);
+    }
+
+    private int multiThreadMonteCarlo(final Card card, final List<CellCandidate> candidates, final long deadline,
+        final List<CellCandidateEvaluator> workers, final int maxShuffles) {
+        if (trace != null) {
+            trace.workers(workers.size(), candidates.size(), 0);
+        }
+        final long startNanos = System.nanoTime();
         final List<Future<Integer>> results = new ArrayList<>(workers.size());
+        final Position position = Position.of(board, deckTracker);
         for (final CellCandidateEvaluator worker : workers) {
-            worker.initWorker(board, deckTracker, card, candidates, cards, deadline);
+            worker.initWorker(position, card, candidates, deadline);
             results.add(executor.submit(worker));
         }
         int shuffles;
@@ -152,7 +976,7 @@ public class PokerSquaresPlayer {
             if (candidates.size() > 1) {
                 candidates.removeIf(c -> c.quality <= 0.01);
             }
-        } while (shuffles < MAX_SHUFFLES && System.currentTimeMillis() < deadline && candidates.size() > 1);
+        } while (shuffles < maxShuffles && System.currentTimeMillis() < deadline && candidates.size() > 1);
         try {
             for (final CellCandidateEvaluator worker : workers) {
                 worker.setStop();
@@ -168,6 +992,60 @@ public class PokerSquaresPlayer {
             ex.printStackTrace(System.out);
             System.exit(-1);
         }
+        recordUtilization(workers, false, System.nanoTime() - startNanos);
+        return shuffles;
+    }
+
+    /**
+     * The workers take (candidate, block of shuffles) units from a shared
+     * partition, so that none of them idles while another finishes a long
+     * shuffle. The blocks are seeded from a seed of the search, so that every
+     * candidate is still evaluated on the same shuffles.
+     */
+    private int partitionedMonteCarlo(final Card card, final List<CellCandidate> candidates, final long deadline,
+        final List<CellCandidateEvaluator> workers, final long seed, final int maxShuffles) {
+        if (trace != null) {
+            trace.workers(workers.size(), candidates.size(), CandidatePartition.BLOCK_SHUFFLES);
+        }
+        final long startNanos = System.nanoTime();
+        final List<Future<Integer>> results = new ArrayList<>(workers.size());
+        partition.init(Position.of(board, deckTracker), card, candidates, seed, deadline, maxShuffles);
+        for (final CellCandidateEvaluator worker : workers) {
+            worker.initPartitionWorker(partition);
+            results.add(executor.submit(worker));
+        }
+        int shuffles;
+        do {
+            shuffles = partition.collect(candidates);
+        } while (shuffles < maxShuffles && System.currentTimeMillis() < deadline && candidates.size() > 1);
+        try {
+            partition.setStop();
+            for (final Future<Integer> f : results) {
+                f.get();
+            }
+        } catch (final InterruptedException | ExecutionException ex) {
+            ex.printStackTrace(System.out);
+            System.exit(-1);
+        }
+        shuffles = partition.collect(candidates);
+        recordUtilization(workers, true, System.nanoTime() - startNanos);
         return shuffles;
     }
+
+    private void recordUtilization(final List<CellCandidateEvaluator> workers, final boolean partitioned, final long nanos) {
+        long cpuNanos = 0;
+        long wallNanos = 0;
+        for (final CellCandidateEvaluator worker : workers) {
+            cpuNanos = worker.getCpuNanos() < 0 || cpuNanos < 0 ? -1 : cpuNanos + worker.getCpuNanos();
+            wallNanos += worker.getWallNanos();
+        }
+        if (tuner.recordUtilization(cpuNanos, wallNanos)) {
+            retune = true;
+        }
+        lastPartitioned = partitioned;
+        lastWorkerCpuNanos = cpuNanos;
+        if (trace != null && cpuNanos >= 0) {
+            trace.utilization(cpuNanos * 100.0 / (nanos * workers.size()));
+        }
+    }
 }
@@ -0,0 +1,206 @@
+package mengyaxi.pokersquares;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * An immutable, compact snapshot of a game position: the board, the order in
+ * which its cards were played, and the undealt cards.
+ *
+ * The snapshot is captured once by the coordinator and can be shared freely
+ * between threads. Cards on the board are packed 6 bits per cell into three
+ * longs, so that two positions with the same cards on the same cells are equal
+ * regardless of the order of the plays. The play stack is kept so that a
+ * restored board can retract its plays as usual.
+ *
+ * @author Meng
+ */
+public final class Position {
+
+    private static final int BITS_PER_CELL = 6;
+    private static final int CELLS_PER_LONG = 10;
+    private static final long CELL_MASK = (1L << BITS_PER_CELL) - 1;
+    private static final int CARD_BITS = 6;
+    private static final int CARD_MASK = (1 << CARD_BITS) - 1;
+
+    public static final int CELLS_SIZE = 4 * Long.BYTES;
+
+    public static final Position EMPTY = new Position((1L << Card.NUM_CARDS) - 1, 0, 0, 0, new short[0]);
+
+    private final long deck; // bit per card id, set if the card has not been dealt
+    private final long cells0, cells1, cells2; // (card id + 1) per cell, 0 means empty
+    private final short[] plays; // (cell << CARD_BITS) | card id, in order of play
+
+    private Position(final long deck, final long cells0, final long cells1, final long cells2, final short[] plays) {
+        this.deck = deck;
+        this.cells0 = cells0;
+        this.cells1 = cells1;
+        this.cells2 = cells2;
+        this.plays = plays;
+    }
+
+    public static Position of(final Board board, final DeckTracker deckTracker) {
+        final long[] cells = new long[3];
+        final short[] plays = new short[board.numberOfCards()];
+        for (int i = 0; i < plays.length; ++i) {
+            final Board.Play p = board.getPlay(i);
+            final int cell = p.row * Board.SIZE + p.col;
+            plays[i] = (short) (cell << CARD_BITS | p.card.id);
+            cells[cell / CELLS_PER_LONG] |= (long) (p.card.id + 1) << (cell % CELLS_PER_LONG * BITS_PER_CELL);
+        }
+        return new Position(deckTracker.toBits(), cells[0], cells[1], cells[2], plays);
+    }
+
+    /**
+     * Reset the given board and deck tracker to this position.
+     *
+     * @param board
+     * @param deckTracker
+     */
+    public void restore(final Board board, final DeckTracker deckTracker) {
+        board.clear();
+        for (final short p : plays) {
+            final int cell = p >>> CARD_BITS;
+            board.putCard(Card.getCardById(p & CARD_MASK), cell / Board.SIZE, cell % Board.SIZE);
+        }
+        deckTracker.fromBits(deck);
+    }
+
+    public int numberOfCards() {
+        return plays.length;
+    }
+
+    public int numberOfEmptyCells() {
+        return Board.NUMBER_OF_CELLS - plays.length;
+    }
+
+    public long getDeckBits() {
+        return deck;
+    }
+
+    public boolean hasCard(final Card card) {
+        return (deck & 1L << card.id) != 0;
+    }
+
+    public Card getCard(final int row, final int col) {
+        final int cell = row * Board.SIZE + col;
+        final long cells = cell < CELLS_PER_LONG ? cells0 : (cell < 2 * CELLS_PER_LONG ? cells1 : cells2);
+        final int code = (int) (cells >>> (cell % CELLS_PER_LONG * BITS_PER_CELL) & CELL_MASK);
+        return code == 0 ? null : Card.getCardById(code - 1);
+    }
+
+    /**
+     * A 64-bit key of the cards on the board and the undealt cards, suitable
+     * for hash tables and caches. It does not depend on the order of plays.
+     *
+     * @return
+     */
+    public long key() {
+        long h = mix(deck);
+        h = mix(h ^ cells0);
+        h = mix(h ^ cells1);
+        return mix(h ^ cells2);
+    }
+
+    public int encodedSize() {
+        return 4 * Long.BYTES + 1 + plays.length * Short.BYTES;
+    }
+
+    public void writeTo(final ByteBuffer buffer) {
+        buffer.putLong(deck).putLong(cells0).putLong(cells1).putLong(cells2);
+        buffer.put((byte) plays.length);
+        for (final short p : plays) {
+            buffer.putShort(p);
+        }
+    }
+
+    public static Position readFrom(final ByteBuffer buffer) {
+        final long deck = buffer.getLong();
+        final long cells0 = buffer.getLong();
+        final long cells1 = buffer.getLong();
+        final long cells2 = buffer.getLong();
+        final int n = buffer.get();
+        if (n < 0 || n > Board.NUMBER_OF_CELLS) {
+            throw new IllegalArgumentException("Bad number of plays: " + n);
+        }
+        final short[] plays = new short[n];
+        for (int i = 0; i < n; ++i) {
+            plays[i] = buffer.getShort();
+        }
+        return new Position(deck, cells0, cells1, cells2, plays);
+    }
+
+    /**
+     * Write the cards of the board and the undealt cards in a fixed size of
+     * CELLS_SIZE bytes, without the order of the plays.
+     *
+     * @param buffer
+     */
+    public void writeCellsTo(final ByteBuffer buffer) {
+        buffer.putLong(deck).putLong(cells0).putLong(cells1).putLong(cells2);
+    }
+
+    /**
+     * Read a position written by {@link #writeCellsTo(ByteBuffer)} at the
+     * given index of the buffer, with its cards played in the order of their
+     * cells.
+     *
+     * @param buffer
+     * @param index
+     * @return
+     */
+    public static Position readCellsFrom(final ByteBuffer buffer, final int index) {
+        final long deck = buffer.getLong(index);
+        final long[] cells = {buffer.getLong(index + Long.BYTES), buffer.getLong(index + 2 * Long.BYTES),
+            buffer.getLong(index + 3 * Long.BYTES)};
+        int n = 0;
+        final short[] plays = new short[Board.NUMBER_OF_CELLS];
+        for (int cell = 0; cell < Board.NUMBER_OF_CELLS; ++cell) {
+            final int code = (int) (cells[cell / CELLS_PER_LONG] >>> (cell % CELLS_PER_LONG * BITS_PER_CELL) & CELL_MASK);
+            if (code != 0) {
+                plays[n++] = (short) (cell << CARD_BITS | code - 1);
+            }
+        }
+        return new Position(deck, cells[0], cells[1], cells[2], Arrays.copyOf(plays, n));
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Position)) {
+            return false;
+        }
+        final Position p = (Position) o;
+        return deck == p.deck && cells0 == p.cells0 && cells1 == p.cells1 && cells2 == p.cells2;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(key());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (int row = 0; row < Board.SIZE; ++row) {
+            for (int col = 0; col < Board.SIZE; ++col) {
+                final Card c = getCard(row, col);
+                sb.append(col == 0 ? "" : " ").append(c == null ? "--" : c.toString());
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    static long mix(long h) { // the finalizer of MurmurHash3
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,85 @@
+package mengyaxi.pokersquares;
+
+import java.util.Arrays;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Rollout throughput by game stage, the stage being the number of empty cells
+ * at the move.
+ *
+ * @author Meng
+ */
+public final class RolloutStats {
+
+    private final long[] shuffles = new long[Board.NUMBER_OF_CELLS + 1];
+    private final long[] nanos = new long[Board.NUMBER_OF_CELLS + 1];
+    // by scheduling of the multi-threaded Monte Carlo, replicated or partitioned
+    private final long[] parallelMoves = new long[2];
+    private final long[] workerCpuNanos = new long[2];
+    private final long[] workerCapacityNanos = new long[2];
+
+    /**
+     * @param emptyCells
+     * @param shuffles
+     * @param nanos the wall time of the search
+     */
+    public void add(final int emptyCells, final long shuffles, final long nanos) {
+        this.shuffles[emptyCells] += shuffles;
+        this.nanos[emptyCells] += nanos;
+    }
+
+    /**
+     * @param partitioned whether the candidates were partitioned between the
+     * workers rather than replicated in every worker
+     * @param cpuNanos the sum of the cpu time of the workers
+     * @param wallNanos the wall time of the search
+     * @param workers
+     */
+    public void addUtilization(final boolean partitioned, final long cpuNanos, final long wallNanos, final int workers) {
+        final int i = partitioned ? 1 : 0;
+        ++parallelMoves[i];
+        if (cpuNanos >= 0) {
+            workerCpuNanos[i] += cpuNanos;
+            workerCapacityNanos[i] += wallNanos * workers;
+        }
+    }
+
+    /**
+     * @param partitioned
+     * @return the fraction of the time the workers were busy in the
+     * multi-threaded searches of the given scheduling, 0 if unknown
+     */
+    public double getUtilization(final boolean partitioned) {
+        final int i = partitioned ? 1 : 0;
+        return workerCapacityNanos[i] > 0 ? (double) workerCpuNanos[i] / workerCapacityNanos[i] : 0.0;
+    }
+
+    public void clear() {
+        Arrays.fill(shuffles, 0);
+        Arrays.fill(nanos, 0);
+        Arrays.fill(parallelMoves, 0);
+        Arrays.fill(workerCpuNanos, 0);
+        Arrays.fill(workerCapacityNanos, 0);
+    }
+
+    public double getShufflesPerSecond(final int emptyCells) {
+        return nanos[emptyCells] > 0 ? shuffles[emptyCells] * 1e9 / nanos[emptyCells] : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("Empty cells  Shuffles/s\n");
+        for (int i = shuffles.length - 1; i > 0; --i) {
+            if (shuffles[i] > 0) {
+                sb.append(String.format("%11d %11.0f\n", i, getShufflesPerSecond(i)));
+            }
+        }
+        for (int i = 0; i < parallelMoves.length; ++i) {
+            if (parallelMoves[i] > 0) {
+                sb.append(String.format("%s scheduling: %d moves, %.1f%% worker utilization\n",
+                    i == 0 ? "Replicated" : "Partitioned", parallelMoves[i], getUtilization(i == 1) * 100));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,38 @@
+package mengyaxi.pokersquares;
+
+import java.util.List;
+
+/**
+ * A way to choose where to play a card among the candidates of the Strategy.
+ * Engines hear of every move, searched by them or not, so that they can keep
+ * state from one move to the next.
+ *
+ * @author Meng
+ */
+interface SearchEngine {
+
+    String getName();
+
+    /**
+     * Start a new game.
+     */
+    void clear();
+
+    /**
+     * @param card
+     * @param candidates two or more, the best of the Strategy first
+     * @param millis the time quota
+     * @param report to fill in with the rollouts and the nodes of the search
+     * @return the candidate to play
+     */
+    CellCandidate search(Card card, List<CellCandidate> candidates, long millis, SearchReport report);
+
+    /**
+     * A card has been played.
+     *
+     * @param card
+     * @param row
+     * @param col
+     */
+    void played(Card card, int row, int col);
+}
@@ -0,0 +1,36 @@
+package mengyaxi.pokersquares;
+
+import java.util.Arrays;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * What a search engine did for a move, in the same terms for every engine.
+ *
+ * @author Meng
+ */
+public final class SearchReport {
+
+    public final String engine;
+    public final int emptyCells;
+    public final int candidates;
+    public final long quotaMillis;
+    public long rollouts = 0; // shuffles, iterations or leaves, whichever the engine plays to the end of the game
+    public long nodes = 0; // positions kept or visited by the engine, 0 if it keeps none
+    public long nanos = 0; // latency of the search
+    // the expected final score of the candidates by id, NaN if the engine didn't estimate it
+    public final double[] candidateScores = new double[Board.NUMBER_OF_CELLS];
+
+    public SearchReport(final String engine, final int emptyCells, final int candidates, final long quotaMillis) {
+        this.engine = engine;
+        this.emptyCells = emptyCells;
+        this.candidates = candidates;
+        this.quotaMillis = quotaMillis;
+        Arrays.fill(candidateScores, Double.NaN);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d empty cells, %d candidates, %d rollouts, %d nodes, %.2f ms of %d ms",
+            engine, emptyCells, candidates, rollouts, nodes, nanos / 1e6, quotaMillis);
+    }
+}
@@ -0,0 +1,146 @@
+package mengyaxi.pokersquares;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Plays headless games of the player against itself and appends their moves
+ * to a self-play file. Every thread runs a single-threaded player of its own
+ * on games it takes from a shared counter, so that the throughput scales with
+ * the cores; the deal of a game depends on the seed and the game only.
+ *
+ * Usage: SelfPlayGenerator file [games] [threads] [millis per game] [seed]
+ *
+ * @author Meng
+ */
+public final class SelfPlayGenerator {
+
+    private final SelfPlayWriter writer;
+    private final int games;
+    private final long gameMillis;
+    private final long seed;
+    private final AtomicInteger nextGame = new AtomicInteger();
+    private final AtomicInteger failedGames = new AtomicInteger();
+
+    private SelfPlayGenerator(final SelfPlayWriter writer, final int games, final long gameMillis, final long seed) {
+        this.writer = writer;
+        this.games = games;
+        this.gameMillis = gameMillis;
+        this.seed = seed;
+    }
+
+    private final class Worker implements Callable<Integer> {
+
+        private final PokerSquaresPlayer player = new PokerSquaresPlayer();
+        private final Board board = new Board();
+        private final SelfPlayWriter.Game game = new SelfPlayWriter.Game();
+        private final List<Card> cards = new ArrayList<>(Card.NUM_CARDS);
+
+        Worker(final PokerSquaresPlayer trained) {
+            player.parallel = false;
+            player.setLineValues(trained.getLineValues());
+            player.setMoveListener(game::add);
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            int n = 0;
+            for (int id = nextGame.getAndIncrement(); id < games; id = nextGame.getAndIncrement()) {
+                if (play(id)) {
+                    writer.write(game);
+                    ++n;
+                } else {
+                    failedGames.incrementAndGet();
+                }
+            }
+            return n;
+        }
+
+        /**
+         * @return false if the player ran out of time
+         */
+        private boolean play(final int id) {
+            player.init();
+            board.clear();
+            game.clear(id);
+            cards.clear();
+            for (int i = 0; i < Card.NUM_CARDS; ++i) {
+                cards.add(Card.getCardById(i));
+            }
+            Collections.shuffle(cards, new Random(Position.mix(seed + id)));
+            long millisRemaining = gameMillis;
+            for (int i = 0; i < Board.NUMBER_OF_CELLS; ++i) {
+                final long start = System.currentTimeMillis();
+                final int[] cell = player.getPlay(cards.get(i), millisRemaining);
+                millisRemaining -= System.currentTimeMillis() - start;
+                if (millisRemaining < 0) {
+                    return false;
+                }
+                board.putCard(cards.get(i), cell[0], cell[1]);
+            }
+            game.finish(board);
+            return true;
+        }
+    }
+
+    private int run(final int threads) throws IOException {
+        // the line values and the compiled code are shared by all the players
+        final PokerSquaresPlayer trained = new PokerSquaresPlayer();
+        trained.parallel = false;
+        trained.trainLineValues(trained.lineValueMillis);
+        trained.warmUp(trained.warmUpMillis);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Worker> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; ++i) {
+            workers.add(new Worker(trained));
+        }
+        int n = 0;
+        try {
+            for (final Future<Integer> f : executor.invokeAll(workers)) {
+                n += f.get();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException ex) {
+            throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return n;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: SelfPlayGenerator file [games] [threads] [millis per game] [seed]");
+            return;
+        }
+        final int games = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        final long gameMillis = args.length > 3 ? Long.parseLong(args[3]) : 3000;
+        final long seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+        final long start = System.currentTimeMillis();
+        final int n;
+        final long records;
+        final int failed;
+        try (final SelfPlayWriter writer = new SelfPlayWriter(Paths.get(args[0]))) {
+            final SelfPlayGenerator generator = new SelfPlayGenerator(writer, games, gameMillis, seed);
+            n = generator.run(threads);
+            records = writer.getRecords();
+            failed = generator.failedGames.get();
+        }
+        final double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        System.out.println(String.format("%d games, %d records written by %d threads within %.2f seconds: %.2f games/s%s",
+            n, records, threads, seconds, n / seconds, failed > 0 ? String.format(", %d games out of time", failed) : ""));
+    }
+}
@@ -0,0 +1,196 @@
+package mengyaxi.pokersquares;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Random access to the records of a self-play file written by
+ * SelfPlayWriter, through memory mapped chunks of the file. The accessors read
+ * the mapped bytes in place and allocate nothing, but for positions.
+ *
+ * A reader sees the records of the file when it was opened. It is safe to use
+ * from several threads.
+ *
+ * @author Meng
+ */
+public final class SelfPlayReader implements AutoCloseable {
+
+    private static final int CHUNK_RECORDS = (Integer.MAX_VALUE - SelfPlayWriter.HEADER_SIZE) / SelfPlayWriter.RECORD_SIZE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+
+    /**
+     * @param path
+     * @throws IOException if the file can't be read or isn't a self-play file
+     */
+    public SelfPlayReader(final Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            size = Math.max(channel.size() - SelfPlayWriter.HEADER_SIZE, 0) / SelfPlayWriter.RECORD_SIZE;
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                Math.min(channel.size(), SelfPlayWriter.HEADER_SIZE));
+            SelfPlayWriter.checkHeader(header);
+            chunks = new MappedByteBuffer[(int) ((size + CHUNK_RECORDS - 1) / CHUNK_RECORDS)];
+            for (int i = 0; i < chunks.length; ++i) {
+                final long records = Math.min(size - (long) i * CHUNK_RECORDS, CHUNK_RECORDS);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    SelfPlayWriter.HEADER_SIZE + (long) i * CHUNK_RECORDS * SelfPlayWriter.RECORD_SIZE,
+                    records * SelfPlayWriter.RECORD_SIZE);
+            }
+        } catch (final IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the number of records
+     */
+    public long size() {
+        return size;
+    }
+
+    private ByteBuffer chunkOf(final long record) {
+        if (record < 0 || record >= size) {
+            throw new IndexOutOfBoundsException("Record " + record + " of " + size);
+        }
+        return chunks[(int) (record / CHUNK_RECORDS)];
+    }
+
+    private static int offsetOf(final long record) {
+        return (int) (record % CHUNK_RECORDS) * SelfPlayWriter.RECORD_SIZE;
+    }
+
+    public int getGame(final long record) {
+        return chunkOf(record).getInt(offsetOf(record));
+    }
+
+    /**
+     * @param record
+     * @return the number of cards on the board before the move
+     */
+    public int getMove(final long record) {
+        return chunkOf(record).get(offsetOf(record) + 4);
+    }
+
+    public Card getCard(final long record) {
+        return Card.getCardById(chunkOf(record).get(offsetOf(record) + 5));
+    }
+
+    /**
+     * @param record
+     * @return the cell the card was played at, row * Board.SIZE + col
+     */
+    public int getCell(final long record) {
+        return chunkOf(record).get(offsetOf(record) + 6);
+    }
+
+    public int getNumberOfCandidates(final long record) {
+        return chunkOf(record).get(offsetOf(record) + 7);
+    }
+
+    /**
+     * @param record
+     * @return the position before the move
+     */
+    public Position getPosition(final long record) {
+        return Position.readCellsFrom(chunkOf(record), offsetOf(record) + 8);
+    }
+
+    /**
+     * @param record
+     * @return the rollouts of the search, 0 if the move was forced
+     */
+    public int getRollouts(final long record) {
+        return chunkOf(record).getInt(offsetOf(record) + 40);
+    }
+
+    /**
+     * @param record
+     * @param i in range [0, getNumberOfCandidates(record))
+     * @return the cell of the candidate
+     */
+    public int getCandidateCell(final long record, final int i) {
+        return chunkOf(record).get(candidateOffset(record, i));
+    }
+
+    /**
+     * @return the quality the Strategy gave the candidate
+     */
+    public float getCandidateQuality(final long record, final int i) {
+        return chunkOf(record).getFloat(candidateOffset(record, i) + 1);
+    }
+
+    /**
+     * @return the expected final score the search gave the candidate, NaN if
+     * unknown
+     */
+    public float getCandidateScore(final long record, final int i) {
+        return chunkOf(record).getFloat(candidateOffset(record, i) + 5);
+    }
+
+    private static int candidateOffset(final long record, final int i) {
+        return offsetOf(record) + SelfPlayWriter.CANDIDATES_OFFSET + i * SelfPlayWriter.CANDIDATE_SIZE;
+    }
+
+    /**
+     * @param record
+     * @param line the rows then the columns, in range [0, 2 * Board.SIZE)
+     * @return the final score of the line in the game of the record
+     */
+    public int getLineScore(final long record, final int line) {
+        return chunkOf(record).get(offsetOf(record) + SelfPlayWriter.LINE_SCORES_OFFSET + line);
+    }
+
+    /**
+     * @param record
+     * @return the final score of the game of the record
+     */
+    public int getScore(final long record) {
+        return chunkOf(record).getShort(offsetOf(record) + SelfPlayWriter.SCORE_OFFSET);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Print a summary of a self-play file.
+     *
+     * @param args the file
+     * @throws IOException
+     */
+    public static void main(final String[] args) throws IOException {
+        try (final SelfPlayReader reader = new SelfPlayReader(Paths.get(args[0]))) {
+            long games = 0;
+            long score = 0;
+            long searched = 0;
+            for (long r = 0; r < reader.size(); ++r) {
+                if (reader.getMove(r) == 0) {
+                    ++games;
+                    score += reader.getScore(r);
+                }
+                if (reader.getRollouts(r) > 0) {
+                    ++searched;
+                }
+            }
+            System.out.println(String.format("%d records of %d games, %d searched moves, mean score %.2f",
+                reader.size(), games, searched, games > 0 ? (double) score / games : 0.0));
+            if (reader.size() > 0) {
+                final long r = reader.size() - 1;
+                System.out.print(reader.getPosition(r));
+                System.out.println(String.format("Last move: \"%s\" at (%d, %d), final score %d", reader.getCard(r),
+                    reader.getCell(r) / Board.SIZE + 1, reader.getCell(r) % Board.SIZE + 1, reader.getScore(r)));
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package mengyaxi.pokersquares;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Appends self-play records to a file. The file is a header followed by
+ * records of RECORD_SIZE bytes, one per move:
+ *
+ * <pre>
+ *   0 int    game
+ *   4 byte   move, the number of cards on the board
+ *   5 byte   card id
+ *   6 byte   cell of the card
+ *   7 byte   number of candidates recorded, up to MAX_CANDIDATES
+ *   8 long*4 the position before the move, see Position.writeCellsTo
+ *  40 int    rollouts of the search, 0 if the move was forced
+ *  44 the candidates, MAX_CANDIDATES slots of
+ *       byte  cell
+ *       float quality given by the Strategy
+ *       float expected final score given by the search, NaN if unknown
+ * 116 byte*10 final scores of the rows then the columns
+ * 126 short  final score
+ * </pre>
+ *
+ * The moves of a game are appended together once the game is over, so that
+ * several threads can share a writer without interleaving their games. A
+ * file cut short by a crash is read up to its last whole record.
+ *
+ * @author Meng
+ */
+public final class SelfPlayWriter implements AutoCloseable {
+
+    public static final int MAGIC = 0x50535152; // "PSQR"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 128;
+    public static final int MAX_CANDIDATES = 8;
+    static final int CANDIDATES_OFFSET = 44;
+    static final int CANDIDATE_SIZE = 9;
+    static final int LINE_SCORES_OFFSET = CANDIDATES_OFFSET + MAX_CANDIDATES * CANDIDATE_SIZE;
+    static final int SCORE_OFFSET = LINE_SCORES_OFFSET + 2 * Board.SIZE;
+    private static final int BUFFER_RECORDS = 512;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE);
+    private long records;
+
+    /**
+     * Open a file to append to, creating it if need be. A partial record left
+     * at the end of the file by a crash is cut off, so that the new records
+     * are aligned.
+     *
+     * @param path
+     * @throws IOException if the file can't be opened or isn't a self-play
+     * file
+     */
+    public SelfPlayWriter(final Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() == 0) {
+                header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            } else {
+                while (header.hasRemaining()) {
+                    if (channel.read(header, header.position()) < 0) {
+                        break;
+                    }
+                }
+                header.flip();
+                checkHeader(header);
+                final long whole = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+                channel.truncate(HEADER_SIZE + whole * RECORD_SIZE);
+                channel.position(channel.size());
+            }
+        } catch (final IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @param header at least HEADER_SIZE bytes from the start of a file
+     * @throws IOException if it isn't the header of a self-play file of this
+     * version
+     */
+    static void checkHeader(final ByteBuffer header) throws IOException {
+        if (header.remaining() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a self-play file");
+        }
+        if (header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE) {
+            throw new IOException("Unsupported self-play file version " + header.getInt(4));
+        }
+    }
+
+    /**
+     * A game being recorded, by a single thread.
+     */
+    public static final class Game {
+
+        private final ByteBuffer moves = ByteBuffer.allocate(Board.NUMBER_OF_CELLS * RECORD_SIZE);
+        private int id;
+
+        /**
+         * Start a game.
+         *
+         * @param id
+         */
+        public void clear(final int id) {
+            this.id = id;
+            moves.clear();
+        }
+
+        void add(final Position position, final Card card, final List<CellCandidate> candidates,
+            final CellCandidate winner, final SearchReport report) {
+            final int start = moves.position();
+            moves.putInt(id).put((byte) position.numberOfCards()).put((byte) card.id).put((byte) winner.id);
+            final int n = Math.min(candidates.size(), MAX_CANDIDATES);
+            moves.put((byte) n);
+            position.writeCellsTo(moves);
+            moves.putInt(report != null ? (int) Math.min(report.rollouts, Integer.MAX_VALUE) : 0);
+            for (int i = 0; i < MAX_CANDIDATES; ++i) {
+                final CellCandidate c = i < n ? candidates.get(i) : null;
+                moves.put((byte) (c != null ? c.id : -1));
+                moves.putFloat(c != null ? (float) c.quality : Float.NaN);
+                moves.putFloat(c != null && report != null ? (float) report.candidateScores[c.id] : Float.NaN);
+            }
+            moves.position(start + RECORD_SIZE);
+        }
+
+        /**
+         * Label the moves with the final scores of the board.
+         */
+        void finish(final Board board) {
+            for (int start = 0; start < moves.position(); start += RECORD_SIZE) {
+                for (int i = 0; i < Board.SIZE; ++i) {
+                    moves.put(start + LINE_SCORES_OFFSET + i, (byte) board.getRowScore(i));
+                    moves.put(start + LINE_SCORES_OFFSET + Board.SIZE + i, (byte) board.getColScore(i));
+                }
+                moves.putShort(start + SCORE_OFFSET, (short) board.getPokerHandScore());
+            }
+        }
+    }
+
+    /**
+     * Append a finished game.
+     *
+     * @param game
+     * @throws IOException
+     */
+    public synchronized void write(final Game game) throws IOException {
+        final ByteBuffer moves = game.moves.duplicate();
+        moves.flip();
+        if (buffer.remaining() < moves.remaining()) {
+            flush();
+        }
+        buffer.put(moves);
+        records += moves.limit() / RECORD_SIZE;
+    }
+
+    /**
+     * @return the number of records written since the file was opened
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.force(false);
+        channel.close();
+    }
+}
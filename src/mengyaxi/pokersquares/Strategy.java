@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import mengyaxi.pokersquares.board.Board;
+import mengyaxi.pokersquares.board.LineValueModel;
 import mengyaxi.pokersquares.board.RowCol;
 
 /**
@@ -12,9 +13,10 @@ import mengyaxi.pokersquares.board.RowCol;
  */
 final class Strategy {
 
-    public boolean verbose = false;
+    DecisionTrace trace = null; // where the raw candidates go, null for nowhere
     public int candidatesLimit = 7;
     public double maxQualityDifference = 10.0;
+    public LineValueModel lineValues = null; // null for the hand-tuned line values of RowCol
 
     private final List<CellCandidate> candidates = new ArrayList<>(candidatesLimit);
     private final Board board;
@@ -40,21 +42,36 @@ final class Strategy {
      * @param card
      */
     public void play(final Card card) {
+        if (StrategyProfile.ENABLED) {
+            final int cards = board.numberOfCards();
+            final long start = System.nanoTime();
+            final int branch = choose(card);
+            StrategyProfile.record(branch, cards, candidates.size(), System.nanoTime() - start);
+        } else {
+            choose(card);
+        }
+    }
+
+    /**
+     * @param card
+     * @return the branch of StrategyProfile that chose the candidates
+     */
+    private int choose(final Card card) {
         candidates.clear();
         if (board.isEmpty()) {
             candidates.add(new CellCandidate(0, card.suit));
-            return;
+            return StrategyProfile.EMPTY_BOARD;
         }
         if (board.numberOfEmptyCells() == 1) {
             final Board.Cell cell = board.findFirstEmptyCell();
             candidates.add(new CellCandidate(cell.row, cell.col));
-            return;
+            return StrategyProfile.LAST_CELL;
         }
         if (board.getRow(Board.SIZE - 1).isEmpty()) {
             if (board.hasRank(card.rank)) {
                 final RowCol targetRow = board.findFirstRow(r -> r.hasRank(card.rank));
                 candidates.add(new CellCandidate(targetRow.index, card.suit));
-                return;
+                return StrategyProfile.RANK_ROW;
             }
             final RowCol targetRow = board.findFirstEmptyRow();
             final RowCol col = board.getCol(card.suit);
@@ -62,10 +79,10 @@ final class Strategy {
                 || !col.hasStraightPotential()
                 || col.hasStraightPotential(card)) {
                 candidates.add(new CellCandidate(targetRow.index, col.index));
-            } else {
-                candidates.add(new CellCandidate(targetRow.index, targetRow.lastPosition()));
+                return StrategyProfile.SUIT_COLUMN;
             }
-            return;
+            candidates.add(new CellCandidate(targetRow.index, targetRow.lastPosition()));
+            return StrategyProfile.LAST_POSITION;
         }
         final int rankCount = board.countRank(card.rank);
         if (rankCount == 0 && board.allRowsMatch(r -> r.countRanks() <= 2)) {
@@ -136,7 +153,9 @@ final class Strategy {
                 }
             }
         }
+        final int branch = candidates.isEmpty() ? StrategyProfile.QUALIFIED : StrategyProfile.UNIQUE_RANK_ROWS;
         qualifyCandidates(card);
+        return branch;
     }
 
     private void qualifyCandidates(final Card card) {
@@ -159,21 +178,24 @@ final class Strategy {
             return;
         }
         final double progress = board.progress();
-        final double expectedBoardScore = board.updateExpectedScore(deckTracker);
+        final double expectedBoardScore = lineValues != null ? lineValues.getBoardValue(board, progress, deckTracker)
+            : board.updateExpectedScore(deckTracker);
         double maxQuality = -Double.MAX_VALUE;
         for (final CellCandidate c : candidates) {
-            c.quality = board.getRow(c.row).calculateCardScore(card, c.col, progress, deckTracker)
-                + board.getCol(c.col).calculateCardScore(card, c.row, progress, deckTracker)
-                + expectedBoardScore;
+            if (lineValues != null) {
+                c.quality = lineValues.getCardValue(board.getRow(c.row), card, c.col, progress, deckTracker)
+                    + lineValues.getCardValue(board.getCol(c.col), card, c.row, progress, deckTracker)
+                    + expectedBoardScore;
+            } else {
+                c.quality = board.getRow(c.row).calculateCardScore(card, c.col, progress, deckTracker)
+                    + board.getCol(c.col).calculateCardScore(card, c.row, progress, deckTracker)
+                    + expectedBoardScore;
+            }
             maxQuality = Double.max(maxQuality, c.quality);
         }
         candidates.sort(CellCandidate.REVERSE_QUALITY_COMPARATOR);
-        if (verbose) {
-            System.out.print(candidates.size() + " raw candidates: ");
-            candidates.stream().forEach((c) -> {
-                System.out.print(String.format(" (%d,%d: q=%.2f)", c.row + 1, c.col + 1, c.quality));
-            });
-            System.out.println();
+        if (trace != null) {
+            trace.candidates(DecisionTrace.RAW_CANDIDATES, candidates);
         }
         // remove bad ones
         final double qualified = maxQuality - maxQualityDifference;
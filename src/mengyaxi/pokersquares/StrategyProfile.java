@@ -0,0 +1,153 @@
+package mengyaxi.pokersquares;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Counts which branch of Strategy.play chose the candidates of a card, how
+ * often it forced a single candidate and how long it took, by game phase. It
+ * is enabled with -Dmengyaxi.strategy.profile=true; otherwise ENABLED is
+ * false, a constant to the JIT compiler, which removes the profiling from the
+ * Strategy.
+ *
+ * Usage: StrategyProfile [games] [seed], with the profile enabled, to profile
+ * the Strategy playing greedily as in the rollouts
+ *
+ * @author Meng
+ */
+public final class StrategyProfile {
+
+    public static final boolean ENABLED = Boolean.getBoolean("mengyaxi.strategy.profile");
+
+    static final int EMPTY_BOARD = 0;
+    static final int LAST_CELL = 1;
+    static final int RANK_ROW = 2; // first row, a row of the rank
+    static final int SUIT_COLUMN = 3; // first row, the column of the suit
+    static final int LAST_POSITION = 4; // first row, the last cell of the row
+    static final int UNIQUE_RANK_ROWS = 5;
+    static final int QUALIFIED = 6; // every cell qualified by quality
+    private static final String[] BRANCH_NAMES = {
+        "empty board", "last cell", "rank row", "suit column", "last position", "unique-rank rows", "qualified"};
+    private static final int PHASE_CARDS = Board.SIZE; // cards of a phase
+    private static final int PHASES = Board.NUMBER_OF_CELLS / PHASE_CARDS;
+
+    private static final LongAdder[][] hits = newAdders();
+    private static final LongAdder[][] forced = newAdders();
+    private static final LongAdder[][] nanos = newAdders();
+
+    private StrategyProfile() {
+    }
+
+    private static LongAdder[][] newAdders() {
+        final LongAdder[][] adders = new LongAdder[BRANCH_NAMES.length][PHASES];
+        for (final LongAdder[] a : adders) {
+            for (int i = 0; i < a.length; ++i) {
+                a[i] = new LongAdder();
+            }
+        }
+        return adders;
+    }
+
+    /**
+     * @param branch
+     * @param cards the cards on the board before the play
+     * @param candidates the candidates chosen
+     * @param nanos the time of the play
+     */
+    static void record(final int branch, final int cards, final int candidates, final long nanos) {
+        final int phase = Math.min(cards / PHASE_CARDS, PHASES - 1);
+        hits[branch][phase].increment();
+        if (candidates == 1) {
+            forced[branch][phase].increment();
+        }
+        StrategyProfile.nanos[branch][phase].add(nanos);
+    }
+
+    public static void reset() {
+        for (int b = 0; b < BRANCH_NAMES.length; ++b) {
+            for (int p = 0; p < PHASES; ++p) {
+                hits[b][p].reset();
+                forced[b][p].reset();
+                nanos[b][p].reset();
+            }
+        }
+    }
+
+    private static long sum(final LongAdder[] adders) {
+        long n = 0;
+        for (final LongAdder a : adders) {
+            n += a.sum();
+        }
+        return n;
+    }
+
+    /**
+     * @return the branches by share of the plays and of the time, then the
+     * plays of every branch by phase
+     */
+    public static String report() {
+        long totalHits = 0;
+        long totalNanos = 0;
+        for (int b = 0; b < BRANCH_NAMES.length; ++b) {
+            totalHits += sum(hits[b]);
+            totalNanos += sum(nanos[b]);
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-17s%12s%8s%8s%8s%10s\n", "Branch", "plays", "plays%", "forced%", "time%", "ns/play"));
+        for (int b = 0; b < BRANCH_NAMES.length; ++b) {
+            final long h = sum(hits[b]);
+            final long t = sum(nanos[b]);
+            sb.append(String.format("%-17s%12d%8.1f%8.1f%8.1f%10.0f\n", BRANCH_NAMES[b], h,
+                100.0 * h / Math.max(totalHits, 1), 100.0 * sum(forced[b]) / Math.max(h, 1),
+                100.0 * t / Math.max(totalNanos, 1), (double) t / Math.max(h, 1)));
+        }
+        sb.append(String.format("%-17s", "Plays by cards"));
+        for (int p = 0; p < PHASES; ++p) {
+            sb.append(String.format("%10s", String.format("%d-%d", p * PHASE_CARDS, (p + 1) * PHASE_CARDS - 1)));
+        }
+        sb.append('\n');
+        for (int b = 0; b < BRANCH_NAMES.length; ++b) {
+            sb.append(String.format("%-17s", BRANCH_NAMES[b]));
+            for (int p = 0; p < PHASES; ++p) {
+                sb.append(String.format("%10d", hits[b][p].sum()));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static void main(final String[] args) {
+        if (!ENABLED) {
+            System.out.println("Run with -Dmengyaxi.strategy.profile=true");
+            return;
+        }
+        final int games = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 0x5eed);
+        final Board board = new Board();
+        final DeckTracker deck = new DeckTracker();
+        final Strategy strategy = new Strategy(board, deck);
+        final List<Card> cards = new ArrayList<>(Card.NUM_CARDS);
+        final long start = System.currentTimeMillis();
+        for (int g = 0; g < games; ++g) {
+            board.clear();
+            deck.clear();
+            strategy.clear();
+            deck.getCards(cards);
+            Collections.shuffle(cards, random);
+            for (int i = 0; i < Board.NUMBER_OF_CELLS; ++i) {
+                final Card c = cards.get(i);
+                strategy.play(c);
+                final CellCandidate can = strategy.getCandidates().get(0);
+                deck.deal(c);
+                board.putCard(c, can.row, can.col);
+            }
+        }
+        System.out.println(String.format("%d greedy games within %.2f seconds", games,
+            (System.currentTimeMillis() - start) / 1000.0));
+        System.out.print(report());
+    }
+}
@@ -0,0 +1,208 @@
+package mengyaxi.pokersquares;
+
+import java.util.Arrays;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Keys of positions up to the symmetries of the game: the scores don't change
+ * if rows or columns are permuted, if the board is transposed or if suits are
+ * renamed. The key is the hash of the smallest encoding of the position over
+ * all of them, so equivalent positions share a key.
+ *
+ * The encoding is the number of occupied rows and columns, the cards of the
+ * occupied rows and columns in row-major order, and the next card if any, with
+ * suits renamed in order of first appearance. Empty rows and columns are
+ * interchangeable and left out, so that only the orders of the occupied ones
+ * are enumerated.
+ *
+ * The permutations are enumerated once for all, and an instance keeps the
+ * buffers of its keys, so computing a key allocates nothing. An instance is
+ * not thread safe.
+ *
+ * @author Meng
+ */
+final class Symmetries {
+
+    private static final int[][][] PERMUTATIONS = new int[Board.SIZE + 1][][]; // by size
+    private static final int CODES = 2 + Board.NUMBER_OF_CELLS + 1;
+
+    static {
+        for (int n = 0; n <= Board.SIZE; ++n) {
+            PERMUTATIONS[n] = permutations(n);
+        }
+    }
+
+    private final int[] grid = new int[Board.NUMBER_OF_CELLS];
+    private final int[] best = new int[CODES];
+    private final int[] codes = new int[CODES];
+    private final int[] suits = new int[Card.NUM_SUITS];
+    private final int[] rows = new int[Board.SIZE];
+    private final int[] cols = new int[Board.SIZE];
+
+    /**
+     * @param board
+     * @param grid (card id + 1) by cell, 0 if empty
+     */
+    public static void gridOf(final Board board, final int[] grid) {
+        Arrays.fill(grid, 0);
+        for (int i = 0; i < board.numberOfCards(); ++i) {
+            final Board.Play p = board.getPlay(i);
+            grid[p.row * Board.SIZE + p.col] = p.card.id + 1;
+        }
+    }
+
+    /**
+     * @param board
+     * @param next the card to play, null for the position alone
+     * @return the canonical key of the position
+     */
+    public long keyOf(final Board board, final Card next) {
+        gridOf(board, grid);
+        return keyOf(grid, next);
+    }
+
+    /**
+     * @param grid (card id + 1) by cell, 0 if empty
+     * @param next the card to play, null for the position alone
+     * @return the canonical key of the position
+     */
+    public long keyOf(final int[] grid, final Card next) {
+        best[0] = Integer.MAX_VALUE;
+        for (int t = 0; t < 2; ++t) {
+            int nr = 0;
+            int nc = 0;
+            for (int i = 0; i < Board.SIZE; ++i) {
+                boolean row = false;
+                boolean col = false;
+                for (int j = 0; j < Board.SIZE; ++j) {
+                    row |= cell(grid, t, i, j) != 0;
+                    col |= cell(grid, t, j, i) != 0;
+                }
+                if (row) {
+                    rows[nr++] = i;
+                }
+                if (col) {
+                    cols[nc++] = i;
+                }
+            }
+            final int[][] prs = PERMUTATIONS[nr];
+            for (final int[] pc : PERMUTATIONS[nc]) {
+                for (int i = 0; i < prs.length;) {
+                    final int rowsDecided = encode(grid, t, prs[i], pc, next);
+                    if (rowsDecided < 0) {
+                        System.arraycopy(codes, 0, best, 0, CODES);
+                        ++i;
+                    } else {
+                        // skip the orders of the rows that start the same
+                        final int block = PERMUTATIONS[nr - rowsDecided].length;
+                        i = (i / block + 1) * block;
+                    }
+                }
+            }
+        }
+        long h = 0;
+        for (int i = 0; i < CODES; i += 10) {
+            long word = 0;
+            for (int j = i; j < Math.min(i + 10, CODES); ++j) {
+                word = word << 6 | best[j];
+            }
+            h = Position.mix(h ^ word);
+        }
+        return h;
+    }
+
+    private static int cell(final int[] grid, final int t, final int row, final int col) {
+        return t == 0 ? grid[row * Board.SIZE + col] : grid[col * Board.SIZE + row];
+    }
+
+    /**
+     * Encode the position in the given orders, as long as the encoding isn't
+     * greater than the best one.
+     *
+     * @return -1 if the encoding is smaller than the best one, else the
+     * number of first rows of the order that make it no smaller whatever the
+     * order of the others
+     */
+    private int encode(final int[] grid, final int t, final int[] pr, final int[] pc, final Card next) {
+        Arrays.fill(suits, -1);
+        int labels = 0;
+        int k = 0;
+        boolean less = false;
+        codes[k] = pr.length;
+        if (!less && codes[k] != best[k]) {
+            if (codes[k] > best[k]) {
+                return 0;
+            }
+            less = true;
+        }
+        codes[++k] = pc.length;
+        if (!less && codes[k] != best[k]) {
+            if (codes[k] > best[k]) {
+                return 0;
+            }
+            less = true;
+        }
+        for (int i = 0; i < pr.length; ++i) {
+            for (int j = 0; j < pc.length; ++j) {
+                final int v = cell(grid, t, rows[pr[i]], cols[pc[j]]);
+                int code = 0;
+                if (v != 0) {
+                    final Card c = Card.getCardById(v - 1);
+                    if (suits[c.suit] < 0) {
+                        suits[c.suit] = labels++;
+                    }
+                    code = 1 + c.rank * Card.NUM_SUITS + suits[c.suit];
+                }
+                codes[++k] = code;
+                if (!less && code != best[k]) {
+                    if (code > best[k]) {
+                        return i + 1;
+                    }
+                    less = true;
+                }
+            }
+        }
+        int code = 0;
+        if (next != null) {
+            if (suits[next.suit] < 0) {
+                suits[next.suit] = labels;
+            }
+            code = 1 + next.rank * Card.NUM_SUITS + suits[next.suit];
+        }
+        codes[++k] = code;
+        if (!less && code != best[k]) {
+            if (code > best[k]) {
+                return pr.length;
+            }
+            less = true;
+        }
+        while (++k < CODES) {
+            codes[k] = 0;
+        }
+        return less ? -1 : pr.length;
+    }
+
+    /**
+     * @return the permutations of 0..n-1 in lexicographic order, so that the
+     * ones that start the same are contiguous
+     */
+    private static int[][] permutations(final int n) {
+        if (n == 0) {
+            return new int[][]{{}};
+        }
+        final int[][] smaller = permutations(n - 1);
+        final int[][] result = new int[smaller.length * n][];
+        int k = 0;
+        for (int first = 0; first < n; ++first) {
+            for (final int[] p : smaller) {
+                final int[] q = new int[n];
+                q[0] = first;
+                for (int i = 0; i < n - 1; ++i) {
+                    q[i + 1] = p[i] < first ? p[i] : p[i] + 1;
+                }
+                result[k++] = q;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package mengyaxi.pokersquares;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import mengyaxi.pokersquares.board.Board;
+
+/**
+ * Generates representative positions by letting the Strategy play random deals
+ * greedily. Used to calibrate and warm up the engine outside of the timed
+ * window.
+ *
+ * @author Meng
+ */
+final class SyntheticPositions {
+
+    private final Random random;
+    private final Board board = new Board();
+    private final DeckTracker deck = new DeckTracker();
+    private final Strategy strategy = new Strategy(board, deck);
+    private final List<Card> cards = new ArrayList<>(Card.NUM_CARDS);
+    private Card nextCard;
+
+    public SyntheticPositions(final long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Deal a random game played by the Strategy up to at least the given
+     * number of cards, until the next card has more than one candidate.
+     *
+     * @param numberOfCards in range [0, Board.NUMBER_OF_CELLS - 2]
+     * @return
+     */
+    public Position next(final int numberOfCards) {
+        while (true) {
+            board.clear();
+            deck.clear();
+            deck.getCards(cards);
+            Collections.shuffle(cards, random);
+            for (int i = 0; i < Board.NUMBER_OF_CELLS - 1; ++i) {
+                final Card c = cards.get(i);
+                strategy.play(c);
+                final List<CellCandidate> cans = strategy.getCandidates();
+                if (i >= numberOfCards && cans.size() > 1) {
+                    nextCard = c;
+                    return Position.of(board, deck);
+                }
+                deck.deal(c);
+                board.putCard(c, cans.get(0).row, cans.get(0).col);
+            }
+        }
+    }
+
+    /**
+     * @return the card to play at the last position returned by
+     * {@link #next(int)}
+     */
+    public Card getNextCard() {
+        return nextCard;
+    }
+}
@@ -0,0 +1,390 @@
+package mengyaxi.pokersquares;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import mengyaxi.pokersquares.board.Board;
+import mengyaxi.pokersquares.board.LineValueModel;
+
+/**
+ * A Monte Carlo tree search over the rest of the game, as an alternative to
+ * the flat Monte Carlo of the CellCandidateEvaluator. Decision nodes choose the
+ * cell of a card among the candidates of the Strategy, whose qualities are
+ * their priors; chance nodes draw the next card. Rollouts from new nodes play
+ * the best candidate of the Strategy.
+ *
+ * Nodes live in preallocated primitive arrays. The tree is kept between moves:
+ * once a move is played it is rerooted at the chance node of the move, which
+ * copies the subtree into the other of two node spaces and drops the rest.
+ * Several searches run in parallel on trees of their own, and their root
+ * statistics are merged.
+ *
+ * @author Meng
+ */
+final class TreeSearch implements Callable<Integer> {
+
+    private static final int NONE = -1;
+    private static final double SCORE_SCALE = 100.0; // of the values compared with the exploration
+    private static final double EXPLORATION = 1.5;
+    private static final float MIN_PRIOR = 0.01f;
+    static final int MAX_ITERATIONS = 200000;
+    private static final int EXPANSION_VISITS = 8; // a decision node rolls out until then, to spare nodes
+
+    /**
+     * A space of nodes. The label of a decision node is the id of its card, the
+     * label of a chance node is the cell of its move.
+     */
+    private static final class Nodes {
+
+        final int capacity;
+        final int[] visits;
+        final long[] scores;
+        final int[] firstChild;
+        final int[] nextSibling;
+        final byte[] labels;
+        final float[] priors;
+        int size = 0;
+
+        Nodes(final int capacity) {
+            this.capacity = capacity;
+            visits = new int[capacity];
+            scores = new long[capacity];
+            firstChild = new int[capacity];
+            nextSibling = new int[capacity];
+            labels = new byte[capacity];
+            priors = new float[capacity];
+        }
+
+        int add(final int label, final float prior) {
+            if (size == capacity) {
+                return NONE;
+            }
+            visits[size] = 0;
+            scores[size] = 0;
+            firstChild[size] = NONE;
+            nextSibling[size] = NONE;
+            labels[size] = (byte) label;
+            priors[size] = prior;
+            return size++;
+        }
+
+        int copy(final Nodes from, final int node) {
+            final int n = add(from.labels[node], from.priors[node]);
+            visits[n] = from.visits[node];
+            scores[n] = from.scores[node];
+            return n;
+        }
+
+        int findChild(final int parent, final int label) {
+            for (int c = firstChild[parent]; c != NONE; c = nextSibling[c]) {
+                if (labels[c] == label) {
+                    return c;
+                }
+            }
+            return NONE;
+        }
+
+        int addChild(final int parent, final int label, final float prior) {
+            final int c = add(label, prior);
+            if (c != NONE) {
+                nextSibling[c] = firstChild[parent];
+                firstChild[parent] = c;
+            }
+            return c;
+        }
+    }
+
+    private Nodes nodes;
+    private Nodes spare;
+    private final int[] copyQueue; // old indices by new index while rerooting
+    private int root; // the chance node of the position before the card to play
+    private final Board board = new Board();
+    private final DeckTracker deck = new DeckTracker();
+    private final Strategy strategy = new Strategy(board, deck);
+    private final int[] path = new int[2 * Board.NUMBER_OF_CELLS + 1];
+    private final List<Card> rolloutCards = new ArrayList<>(Card.NUM_CARDS);
+    private Card card;
+    private long deadline;
+    private int maxIterations;
+    private int iterations;
+
+    /**
+     * @param capacity the number of nodes of each of the two node spaces
+     */
+    public TreeSearch(final int capacity) {
+        nodes = new Nodes(capacity);
+        spare = new Nodes(capacity);
+        copyQueue = new int[capacity];
+        clear();
+    }
+
+    /**
+     * @param lineValues the line values of the Strategy, null for the
+     * hand-tuned ones
+     */
+    public void setLineValues(final LineValueModel lineValues) {
+        strategy.lineValues = lineValues;
+    }
+
+    /**
+     * Start a new game.
+     */
+    public void clear() {
+        nodes.size = 0;
+        root = nodes.add(NONE, 1.0f);
+        card = null;
+        iterations = 0;
+    }
+
+    /**
+     * Prepare a search. The position has to be the one the tree was last
+     * rerooted at.
+     *
+     * @param position
+     * @param card the card to play
+     * @param deadline
+     * @param maxIterations at most MAX_ITERATIONS
+     */
+    public void init(final Position position, final Card card, final long deadline, final int maxIterations) {
+        position.restore(board, deck);
+        strategy.clear();
+        this.card = card;
+        this.deadline = deadline;
+        this.maxIterations = Math.min(maxIterations, MAX_ITERATIONS);
+        iterations = 0;
+    }
+
+    @Override
+    public Integer call() {
+        return search();
+    }
+
+    /**
+     * Search until the deadline or the most iterations.
+     *
+     * @return the number of iterations
+     */
+    public int search() {
+        int decision = nodes.findChild(root, card.id);
+        if (decision == NONE) {
+            decision = nodes.addChild(root, card.id, 1.0f);
+            if (decision == NONE) {
+                return 0;
+            }
+        }
+        final Random random = ThreadLocalRandom.current();
+        do {
+            iterate(decision, random);
+            ++iterations;
+        } while (iterations < maxIterations && System.currentTimeMillis() < deadline);
+        return iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the number of nodes in the tree
+     */
+    public int size() {
+        return nodes.size;
+    }
+
+    /**
+     * Add the statistics of the moves of the card searched last.
+     *
+     * @param visits by cell
+     * @param scores the sum of the scores by cell
+     */
+    public void addRootStatistics(final int[] visits, final long[] scores) {
+        final int decision = nodes.findChild(root, card.id);
+        if (decision == NONE) {
+            return;
+        }
+        for (int c = nodes.firstChild[decision]; c != NONE; c = nodes.nextSibling[c]) {
+            visits[nodes.labels[c]] += nodes.visits[c];
+            scores[nodes.labels[c]] += nodes.scores[c];
+        }
+    }
+
+    /**
+     * Reroot the tree after a move, keeping the subtree of the move.
+     *
+     * @param card
+     * @param row
+     * @param col
+     */
+    public void advance(final Card card, final int row, final int col) {
+        final int decision = nodes.findChild(root, card.id);
+        final int chance = decision == NONE ? NONE : nodes.findChild(decision, row * Board.SIZE + col);
+        if (chance == NONE) {
+            clear();
+            return;
+        }
+        spare.size = 0;
+        copyQueue[0] = chance;
+        spare.copy(nodes, chance);
+        // breadth first, so that the new index of a node is its index in the queue
+        for (int head = 0; head < spare.size; ++head) {
+            int prev = NONE;
+            for (int c = nodes.firstChild[copyQueue[head]]; c != NONE; c = nodes.nextSibling[c]) {
+                copyQueue[spare.size] = c;
+                final int n = spare.copy(nodes, c);
+                if (prev == NONE) {
+                    spare.firstChild[head] = n;
+                } else {
+                    spare.nextSibling[prev] = n;
+                }
+                prev = n;
+            }
+        }
+        final Nodes t = nodes;
+        nodes = spare;
+        spare = t;
+        root = 0;
+    }
+
+    private void iterate(final int decision, final Random random) {
+        long undealt = deck.toBits() & ~(1L << card.id);
+        int depth = 0;
+        int steps = 0;
+        int node = decision;
+        Card c = card;
+        int score;
+        while (true) {
+            path[depth++] = node; // a decision node for card c
+            if (node != decision && nodes.visits[node] < EXPANSION_VISITS) {
+                score = rollout(c, random);
+                break;
+            }
+            if (nodes.firstChild[node] == NONE) {
+                expand(node, c);
+            }
+            final int child = nodes.firstChild[node] == NONE ? NONE : select(node);
+            if (child == NONE) { // out of nodes
+                score = rollout(c, random);
+                break;
+            }
+            final int cell = nodes.labels[child];
+            deck.deal(c);
+            board.putCard(c, cell / Board.SIZE, cell % Board.SIZE);
+            ++steps;
+            path[depth++] = child;
+            if (board.numberOfEmptyCells() == 0) {
+                score = board.getPokerHandScore();
+                break;
+            }
+            if (nodes.visits[child] == 0) {
+                score = rollout(null, random);
+                break;
+            }
+            c = drawCard(undealt, random);
+            undealt &= ~(1L << c.id);
+            node = nodes.findChild(child, c.id);
+            if (node == NONE) {
+                node = nodes.addChild(child, c.id, 1.0f);
+                if (node == NONE) {
+                    score = rollout(c, random);
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < depth; ++i) {
+            ++nodes.visits[path[i]];
+            nodes.scores[path[i]] += score;
+        }
+        retract(steps);
+    }
+
+    private void expand(final int node, final Card c) {
+        strategy.play(c);
+        final List<CellCandidate> cans = strategy.getCandidates();
+        if (nodes.size + cans.size() > nodes.capacity) {
+            return;
+        }
+        if (cans.size() == 1) {
+            nodes.addChild(node, cans.get(0).id, 1.0f);
+            return;
+        }
+        double sum = 0.0;
+        for (final CellCandidate can : cans) {
+            sum += Math.max(can.quality, MIN_PRIOR);
+        }
+        // added in reverse, so that the best candidate comes first
+        for (int i = cans.size() - 1; i >= 0; --i) {
+            final CellCandidate can = cans.get(i);
+            nodes.addChild(node, can.id, (float) (Math.max(can.quality, MIN_PRIOR) / sum));
+        }
+    }
+
+    /**
+     * PUCT: the mean score plus an exploration term weighted by the prior.
+     * Unvisited children take the mean score of the parent.
+     */
+    private int select(final int node) {
+        final int n = nodes.visits[node];
+        final double parentValue = n > 0 ? nodes.scores[node] / (n * SCORE_SCALE) : 0.0;
+        final double exploration = EXPLORATION * Math.sqrt(Math.max(n, 1));
+        int best = NONE;
+        double bestValue = -Double.MAX_VALUE;
+        for (int c = nodes.firstChild[node]; c != NONE; c = nodes.nextSibling[c]) {
+            final int v = nodes.visits[c];
+            final double value = (v > 0 ? nodes.scores[c] / (v * SCORE_SCALE) : parentValue)
+                + exploration * nodes.priors[c] / (1 + v);
+            if (value > bestValue) {
+                bestValue = value;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static Card drawCard(final long undealt, final Random random) {
+        long bits = undealt;
+        for (int k = random.nextInt(Long.bitCount(undealt)); k > 0; --k) {
+            bits &= bits - 1;
+        }
+        return Card.getCardById(Long.numberOfTrailingZeros(bits));
+    }
+
+    /**
+     * Finish the game with the best candidates of the Strategy.
+     *
+     * @param first the card to play first, null to start with a random card
+     * @return the score
+     */
+    private int rollout(final Card first, final Random random) {
+        int steps = 0;
+        if (first != null) {
+            playBest(first);
+            ++steps;
+        }
+        final List<Card> cards = deck.getCards(rolloutCards);
+        final int n = board.numberOfEmptyCells();
+        for (int i = 0; i < n; ++i) {
+            Collections.swap(cards, i, i + random.nextInt(cards.size() - i));
+            playBest(cards.get(i));
+            ++steps;
+        }
+        final int score = board.getPokerHandScore();
+        retract(steps);
+        return score;
+    }
+
+    private void playBest(final Card c) {
+        strategy.play(c);
+        final CellCandidate can = strategy.getCandidates().get(0);
+        deck.deal(c);
+        board.putCard(c, can.row, can.col);
+    }
+
+    private void retract(int steps) {
+        for (; steps > 0; --steps) {
+            deck.putBack(board.retractLastPlay().card);
+        }
+    }
+}
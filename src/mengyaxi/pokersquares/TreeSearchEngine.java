@@ -0,0 +1,126 @@
+package mengyaxi.pokersquares;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import mengyaxi.pokersquares.board.Board;
+import mengyaxi.pokersquares.board.LineValueModel;
+
+/**
+ * Searches with a TreeSearch per worker, and plays the candidate the trees
+ * visited the most together. The trees are kept from one move to the next.
+ *
+ * @author Meng
+ */
+final class TreeSearchEngine implements SearchEngine {
+
+    private static final int TREE_CAPACITY = 1 << 18; // nodes per space of a tree
+
+    DecisionTrace trace = null; // where the visits go, null for nowhere
+    double fixedRolloutsPerSecond = 0; // iterations a second of quota buys instead of time, 0 for time
+
+    private final Board board;
+    private final DeckTracker deck;
+    private final ExecutorService executor;
+    private final List<TreeSearch> trees = new ArrayList<>();
+
+    /**
+     * @param board the board of the game, read only
+     * @param deck the deck tracker of the game, read only
+     * @param executor to run the trees in parallel
+     */
+    public TreeSearchEngine(final Board board, final DeckTracker deck, final ExecutorService executor) {
+        this.board = board;
+        this.deck = deck;
+        this.executor = executor;
+    }
+
+    public void setNumberOfTrees(final int n) {
+        while (trees.size() > n) {
+            trees.remove(trees.size() - 1);
+        }
+        while (trees.size() < n) {
+            trees.add(new TreeSearch(TREE_CAPACITY));
+        }
+    }
+
+    public void setLineValues(final LineValueModel lineValues) {
+        for (final TreeSearch tree : trees) {
+            tree.setLineValues(lineValues);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "tree";
+    }
+
+    @Override
+    public void clear() {
+        for (final TreeSearch tree : trees) {
+            tree.clear();
+        }
+    }
+
+    @Override
+    public CellCandidate search(final Card card, final List<CellCandidate> candidates, final long millis,
+        final SearchReport report) {
+        final long startMillis = System.currentTimeMillis();
+        final boolean fixedWork = fixedRolloutsPerSecond > 0;
+        final long deadline = fixedWork ? Long.MAX_VALUE : startMillis + millis;
+        final int maxIterations = fixedWork
+            ? (int) Math.max(Math.min(millis * fixedRolloutsPerSecond / 1000 / trees.size(), TreeSearch.MAX_ITERATIONS), 1)
+            : TreeSearch.MAX_ITERATIONS;
+        final Position position = Position.of(board, deck);
+        for (final TreeSearch tree : trees) {
+            tree.init(position, card, deadline, maxIterations);
+        }
+        int iterations = 0;
+        if (trees.size() == 1) {
+            iterations = trees.get(0).search();
+        } else {
+            try {
+                for (final Future<Integer> f : executor.invokeAll(trees)) {
+                    iterations += f.get();
+                }
+            } catch (final InterruptedException | ExecutionException ex) {
+                ex.printStackTrace(System.out);
+                System.exit(-1);
+            }
+        }
+        final int[] visits = new int[Board.NUMBER_OF_CELLS];
+        final long[] scores = new long[Board.NUMBER_OF_CELLS];
+        long nodes = 0;
+        for (final TreeSearch tree : trees) {
+            tree.addRootStatistics(visits, scores);
+            nodes += tree.size();
+        }
+        CellCandidate winner = candidates.get(0);
+        for (final CellCandidate c : candidates) {
+            if (visits[c.id] > visits[winner.id]) {
+                winner = c;
+            }
+        }
+        for (final CellCandidate c : candidates) {
+            if (visits[c.id] > 0) {
+                report.candidateScores[c.id] = (double) scores[c.id] / visits[c.id];
+            }
+        }
+        report.rollouts = iterations;
+        report.nodes = nodes;
+        if (trace != null) {
+            trace.tree(iterations, trees.size(), System.currentTimeMillis() - startMillis, trees.get(0).size(),
+                candidates, visits, scores);
+        }
+        return winner;
+    }
+
+    @Override
+    public void played(final Card card, final int row, final int col) {
+        for (final TreeSearch tree : trees) {
+            tree.advance(card, row, col);
+        }
+    }
+}
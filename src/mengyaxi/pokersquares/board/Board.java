@@ -13,7 +13,7 @@ import mengyaxi.pokersquares.DeckTracker;
  */
 public final class Board {
 
-    private static final int[] POINT_SYSTEM = new int[]{0, 2, 5, 10, 15, 20, 25, 50, 75, 100};
+    static final int[] POINT_SYSTEM = new int[]{0, 2, 5, 10, 15, 20, 25, 50, 75, 100};
 
     public static final class Cell {
 
@@ -28,11 +28,25 @@ public final class Board {
 
     public static final class Play {
 
+        private static final Play[] PLAYS = new Play[NUMBER_OF_CELLS * Card.NUM_CARDS]; // plays are immutable, so share them
+
+        static {
+            for (int cell = 0; cell < NUMBER_OF_CELLS; ++cell) {
+                for (int id = 0; id < Card.NUM_CARDS; ++id) {
+                    PLAYS[cell * Card.NUM_CARDS + id] = new Play(cell / SIZE, cell % SIZE, Card.getCardById(id));
+                }
+            }
+        }
+
+        public static Play of(final int row, final int col, final Card card) {
+            return PLAYS[(row * SIZE + col) * Card.NUM_CARDS + card.id];
+        }
+
         public final int row;
         public final int col;
         public final Card card;
 
-        public Play(final int row, final int col, final Card card) {
+        private Play(final int row, final int col, final Card card) {
             this.row = row;
             this.col = col;
             this.card = card;
@@ -54,18 +68,6 @@ public final class Board {
         }
     }
 
-    public void copyFrom(final Board board) {
-        plays.clear();
-        for (final Play p : board.plays) {
-            plays.add(p);
-        }
-        for (int i = 0; i < SIZE; ++i) {
-            rows[i].copyFrom(board.rows[i]);
-            cols[i].copyFrom(board.cols[i]);
-        }
-        System.arraycopy(board.ranks, 0, ranks, 0, Card.NUM_RANKS);
-    }
-
     public void clear() {
         plays.clear();
         for (int i = 0; i < SIZE; ++i) {
@@ -105,6 +107,53 @@ public final class Board {
         return score;
     }
 
+    /**
+     * An upper bound of the final score: every line makes the best hand it
+     * still can with the given undealt cards. It relies on better hands
+     * scoring more, as they do in the American point system.
+     *
+     * @param deck a bit per card id, set if the card is still to come
+     * @return
+     */
+    public int getPokerHandScoreUpperBound(final long deck) {
+        int score = 0;
+        for (final RowColRecord r : rows) {
+            score += POINT_SYSTEM[r.getBestPossibleHandId(deck)];
+        }
+        for (final RowColRecord c : cols) {
+            score += POINT_SYSTEM[c.getBestPossibleHandId(deck)];
+        }
+        return score;
+    }
+
+    public int getPokerHandScoreUpperBound(final DeckTracker deck) {
+        return getPokerHandScoreUpperBound(deck.toBits());
+    }
+
+    /**
+     * @param row a full row
+     * @return
+     */
+    public int getRowScore(final int row) {
+        return POINT_SYSTEM[rows[row].getPokerHandId()];
+    }
+
+    /**
+     * @param col a full column
+     * @return
+     */
+    public int getColScore(final int col) {
+        return POINT_SYSTEM[cols[col].getPokerHandId()];
+    }
+
+    public int getRowScoreUpperBound(final int row, final long deck) {
+        return POINT_SYSTEM[rows[row].getBestPossibleHandId(deck)];
+    }
+
+    public int getColScoreUpperBound(final int col, final long deck) {
+        return POINT_SYSTEM[cols[col].getBestPossibleHandId(deck)];
+    }
+
     public double updateExpectedScore(final DeckTracker deck) {
         final double progress = progress();
         double score = 0.0;
@@ -149,7 +198,7 @@ public final class Board {
     public void putCard(final Card c, final int row, final int col) {
         rows[row].putCard(c, col);
         cols[col].putCard(c, row);
-        plays.add(new Play(row, col, c));
+        plays.add(Play.of(row, col, c));
         ++ranks[c.rank];
     }
 
@@ -161,6 +210,10 @@ public final class Board {
         return lastPlay;
     }
 
+    public Play getPlay(final int i) {
+        return plays.get(i);
+    }
+
     public Play getLastPlay() {
         return plays.get(plays.size() - 1);
     }
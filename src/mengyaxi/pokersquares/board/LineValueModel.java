@@ -0,0 +1,140 @@
+package mengyaxi.pokersquares.board;
+
+import mengyaxi.pokersquares.Card;
+import mengyaxi.pokersquares.DeckTracker;
+
+/**
+ * Learned expected final scores of lines, as an alternative to the hand-tuned
+ * ones of RowCol. A line is reduced to a tuple of small features: its number of
+ * cards, the shape of its ranks, its flush and straight potentials, how many
+ * undealt cards pair its ranks, complete its flush or its straight, and the
+ * stage of the game. The value of a tuple is a weight of a flat table, the
+ * mean final score of the lines with that tuple in self-play.
+ *
+ * Full lines are scored exactly.
+ *
+ * @author Meng
+ */
+public final class LineValueModel {
+
+    public static final int PHASES = 5;
+    private static final int OUT_BUCKETS = 4;
+    private static final int SIZES = RowCol.SIZE + 1;
+    private static final int MAX_RANK_COUNTS = RowCol.SIZE;
+    public static final int NUMBER_OF_PATTERNS = SIZES * SIZES * MAX_RANK_COUNTS * 2 * 2;
+    public static final int NUMBER_OF_FEATURES = NUMBER_OF_PATTERNS * OUT_BUCKETS * OUT_BUCKETS * OUT_BUCKETS * PHASES;
+
+    private final float[] weights;
+
+    /**
+     * @param weights by feature index, see
+     * {@link #indexOf(RowCol, double, DeckTracker)}
+     */
+    public LineValueModel(final float[] weights) {
+        if (weights.length != NUMBER_OF_FEATURES) {
+            throw new IllegalArgumentException();
+        }
+        this.weights = weights;
+    }
+
+    /**
+     * @param line
+     * @param progress of the board
+     * @param deck the undealt cards
+     * @return the expected final score of the line
+     */
+    public double getValue(final RowCol line, final double progress, final DeckTracker deck) {
+        if (line.isFull()) {
+            return Board.POINT_SYSTEM[((RowColRecord) line).getPokerHandId()];
+        }
+        return weights[indexOf(line, progress, deck)];
+    }
+
+    /**
+     * @return the gain of the expected final score of the line from a card
+     * put at the position, as RowCol.calculateCardScore
+     */
+    public double getCardValue(final RowCol line, final Card card, final int pos, final double progress,
+        final DeckTracker deck) {
+        final double score0 = getValue(line, progress, deck);
+        deck.deal(card);
+        line.putCard(card, pos);
+        final double score1 = getValue(line, progress, deck);
+        line.removeCard(pos);
+        deck.putBack(card);
+        return score1 - score0;
+    }
+
+    /**
+     * @return the expected final score of the board
+     */
+    public double getBoardValue(final Board board, final double progress, final DeckTracker deck) {
+        double score = 0.0;
+        for (int i = 0; i < Board.SIZE; ++i) {
+            score += getValue(board.getRow(i), progress, deck) + getValue(board.getCol(i), progress, deck);
+        }
+        return score;
+    }
+
+    /**
+     * @param line
+     * @param progress of the board
+     * @param deck the undealt cards
+     * @return the feature index of the line, in range [0,
+     * NUMBER_OF_FEATURES)
+     */
+    public static int indexOf(final RowCol line, final double progress, final DeckTracker deck) {
+        final int n = line.numberOfCards;
+        int maxRankCount = 0;
+        int pairOuts = 0;
+        for (int i = 0; i < RowCol.SIZE; ++i) {
+            final Card c = line.positions[i];
+            if (c != null && isFirstOfRank(line, i)) {
+                maxRankCount = Math.max(maxRankCount, line.ranks[c.rank]);
+                pairOuts += deck.countRank(c.rank);
+            }
+        }
+        final boolean flush = n > 0 && line.suitCount == 1;
+        final boolean straight = n > 0 && line.rankCount == n && line.hasStraightPotential();
+        int index = (((n * SIZES + line.rankCount) * MAX_RANK_COUNTS + maxRankCount - (n > 0 ? 1 : 0)) * 2
+            + (flush ? 1 : 0)) * 2 + (straight ? 1 : 0);
+        index = index * OUT_BUCKETS + bucket(pairOuts, 1, 3, 6);
+        index = index * OUT_BUCKETS + (flush ? bucket(deck.countSuit(line.getAnyCard().suit) - (RowCol.SIZE - n) + 1, 1, 4, 8) : 0);
+        index = index * OUT_BUCKETS + (straight ? bucket(countStraightOuts(line, deck), 4, 8, 12) : 0);
+        return index * PHASES + Math.min((int) (progress * PHASES), PHASES - 1);
+    }
+
+    /**
+     * @param index a feature index
+     * @return the index of its pattern, the features of the line alone
+     */
+    public static int patternOf(final int index) {
+        return index / (OUT_BUCKETS * OUT_BUCKETS * OUT_BUCKETS * PHASES);
+    }
+
+    private static boolean isFirstOfRank(final RowCol line, final int pos) {
+        for (int i = 0; i < pos; ++i) {
+            if (line.positions[i] != null && line.positions[i].rank == line.positions[pos].rank) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countStraightOuts(final RowCol line, final DeckTracker deck) {
+        int outs = 0;
+        for (int rank = 0; rank < Card.NUM_RANKS; ++rank) {
+            if (line.ranks[rank] == 0 && line.hasStraightPotential(rank)) {
+                outs += deck.countRank(rank);
+            }
+        }
+        return outs;
+    }
+
+    /**
+     * @return 0 below the first threshold, up to 3 from the last one
+     */
+    private static int bucket(final int value, final int t1, final int t2, final int t3) {
+        return value < t1 ? 0 : value < t2 ? 1 : value < t3 ? 2 : 3;
+    }
+}
@@ -62,10 +62,17 @@ public class RowCol {
     }
 
     public final boolean hasStraightPotential(final Card card) {
+        return hasStraightPotential(card.rank);
+    }
+
+    /**
+     * @param newRank
+     * @return whether a card of the rank would keep the straight potential
+     */
+    public final boolean hasStraightPotential(final int newRank) {
         if (isEmpty()) {
             return true;
         }
-        final int newRank = card.rank;
         if (ranks[newRank] > 0 || isFull() || !hasStraightPotential()) {
             return false;
         }
@@ -9,21 +9,14 @@ import mengyaxi.pokersquares.Card;
  */
 final class RowColRecord extends RowCol {
 
+    private static final long SUIT_MASK = (1L << Card.NUM_RANKS) - 1;
+
+    private final int[] availableRanks = new int[Card.NUM_RANKS]; // scratch for getBestPossibleHandId
+
     public RowColRecord(final int index) {
         super(index);
     }
 
-    public void copyFrom(final RowColRecord rc) {
-        numberOfCards = rc.numberOfCards;
-        rankCount = rc.rankCount;
-        suitCount = rc.suitCount;
-        System.arraycopy(rc.positions, 0, positions, 0, SIZE);
-        System.arraycopy(rc.ranks, 0, ranks, 0, Card.NUM_RANKS);
-        System.arraycopy(rc.suits, 0, suits, 0, Card.NUM_SUITS);
-        System.arraycopy(rc.rankRange, 0, rankRange, 0, rankRange.length);
-        anyCardPosition = rc.anyCardPosition;
-    }
-
     public void clear() {
         numberOfCards = 0;
         rankCount = 0;
@@ -71,10 +64,148 @@ final class RowColRecord extends RowCol {
             || ranks[0] == 0 && (rankRange[1] - rankRange[0] < SIZE);
         if (isStraight) {
             if (isFlush) {
-                return ranks[0] > 0 ? 9/*PokerHand.ROYAL_FLUSH*/ : 8/*PokerHand.STRAIGHT_FLUSH*/;
+                return rankRange[0] > Card.NUM_RANKS - SIZE ? 9/*PokerHand.ROYAL_FLUSH*/ : 8/*PokerHand.STRAIGHT_FLUSH*/;
             }
             return 4/*PokerHand.STRAIGHT*/;
         }
         return isFlush ? 5/*PokerHand.FLUSH*/ : 0/*PokerHand.HIGH_CARD*/;
     }
+
+    /**
+     * The best hand this line can still make with the given undealt cards,
+     * ignoring that the other lines compete for the same cards. For a full
+     * line it is the hand it has.
+     *
+     * @param deck a bit per card id, set if the card is available
+     * @return the poker hand id
+     */
+    public int getBestPossibleHandId(final long deck) {
+        if (numberOfCards == SIZE) {
+            return getPokerHandId();
+        }
+        final int free = SIZE - numberOfCards;
+        if (numberOfCards == rankCount && suitCount <= 1) {
+            if (numberOfCards == 0) {
+                for (int suit = 0; suit < Card.NUM_SUITS; ++suit) {
+                    if (canMakeStraight(deck, suit, Card.NUM_RANKS - SIZE + 1)) {
+                        return 9; // PokerHand.ROYAL_FLUSH
+                    }
+                }
+                for (int suit = 0; suit < Card.NUM_SUITS; ++suit) {
+                    for (int start = 0; start <= Card.NUM_RANKS - SIZE; ++start) {
+                        if (canMakeStraight(deck, suit, start)) {
+                            return 8; // PokerHand.STRAIGHT_FLUSH
+                        }
+                    }
+                }
+            } else {
+                final int suit = getAnyCard().suit;
+                if (canMakeStraight(deck, suit, Card.NUM_RANKS - SIZE + 1)) {
+                    return 9; // PokerHand.ROYAL_FLUSH
+                }
+                for (int start = 0; start <= Card.NUM_RANKS - SIZE; ++start) {
+                    if (canMakeStraight(deck, suit, start)) {
+                        return 8; // PokerHand.STRAIGHT_FLUSH
+                    }
+                }
+            }
+        }
+        for (int rank = 0; rank < Card.NUM_RANKS; ++rank) {
+            int n = ranks[rank];
+            for (int id = rank; id < Card.NUM_CARDS; id += Card.NUM_RANKS) {
+                n += (int) (deck >>> id) & 1;
+            }
+            availableRanks[rank] = n;
+        }
+        for (int rank = 0; rank < Card.NUM_RANKS; ++rank) {
+            if (availableRanks[rank] >= 4 && numberOfCards - ranks[rank] <= 1) {
+                return 7; // PokerHand.FOUR_OF_A_KIND
+            }
+        }
+        if (rankCount <= 2) {
+            for (int r3 = 0; r3 < Card.NUM_RANKS; ++r3) {
+                if (availableRanks[r3] < 3 || ranks[r3] > 3) {
+                    continue;
+                }
+                for (int r2 = 0; r2 < Card.NUM_RANKS; ++r2) {
+                    if (r2 != r3 && availableRanks[r2] >= 2 && ranks[r2] <= 2
+                        && numberOfCards == ranks[r3] + ranks[r2]) {
+                        return 6; // PokerHand.FULL_HOUSE
+                    }
+                }
+            }
+        }
+        if (suitCount == 0) {
+            for (int suit = 0; suit < Card.NUM_SUITS; ++suit) {
+                if (Long.bitCount(deck >>> (suit * Card.NUM_RANKS) & SUIT_MASK) >= free) {
+                    return 5; // PokerHand.FLUSH
+                }
+            }
+        } else if (suitCount == 1
+            && Long.bitCount(deck >>> (getAnyCard().suit * Card.NUM_RANKS) & SUIT_MASK) >= free) {
+            return 5; // PokerHand.FLUSH
+        }
+        if (numberOfCards == rankCount) {
+            for (int start = 0; start <= Card.NUM_RANKS - SIZE + 1; ++start) {
+                if (canMakeStraight(deck, -1, start)) {
+                    return 4; // PokerHand.STRAIGHT
+                }
+            }
+        }
+        for (int rank = 0; rank < Card.NUM_RANKS; ++rank) {
+            if (availableRanks[rank] >= 3 && numberOfCards - ranks[rank] <= 2) {
+                return 3; // PokerHand.THREE_OF_A_KIND
+            }
+        }
+        if (rankCount <= 3) {
+            for (int r0 = 0; r0 < Card.NUM_RANKS; ++r0) {
+                if (availableRanks[r0] < 2) {
+                    continue;
+                }
+                for (int r1 = r0 + 1; r1 < Card.NUM_RANKS; ++r1) {
+                    if (availableRanks[r1] >= 2
+                        && numberOfCards - Integer.min(ranks[r0], 2) - Integer.min(ranks[r1], 2) <= 1) {
+                        return 2; // PokerHand.TWO_PAIR
+                    }
+                }
+            }
+        }
+        for (int rank = 0; rank < Card.NUM_RANKS; ++rank) {
+            if (availableRanks[rank] >= 2 && numberOfCards - Integer.min(ranks[rank], 2) <= 3) {
+                return 1; // PokerHand.ONE_PAIR
+            }
+        }
+        return 0; // PokerHand.HIGH_CARD
+    }
+
+    /**
+     * @param suit the suit of the straight flush, or negative for any straight
+     * @param start the lowest rank of the straight, an ace is the highest rank
+     * if start is Card.NUM_RANKS - SIZE + 1
+     */
+    private boolean canMakeStraight(final long deck, final int suit, final int start) {
+        int n = 0;
+        for (int i = 0; i < SIZE; ++i) {
+            final int rank = (start + i) % Card.NUM_RANKS;
+            if (ranks[rank] > 0) {
+                ++n;
+            } else if (suit >= 0) {
+                if ((deck >>> (suit * Card.NUM_RANKS + rank) & 1) == 0) {
+                    return false;
+                }
+            } else {
+                boolean found = false;
+                for (int id = rank; id < Card.NUM_CARDS; id += Card.NUM_RANKS) {
+                    if ((deck >>> id & 1) != 0) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+        }
+        return n == rankCount;
+    }
 }
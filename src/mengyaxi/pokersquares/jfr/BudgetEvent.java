@@ -0,0 +1,35 @@
+package mengyaxi.pokersquares.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The time budget of a move and the engine it went to.
+ *
+ * @author Meng
+ */
+@Name("mengyaxi.Budget")
+@Label("Time Budget")
+@Category("Poker Squares")
+public final class BudgetEvent extends jdk.jfr.Event {
+
+    @Label("Empty Cells")
+    public int emptyCells;
+
+    @Label("Engine")
+    public String engine;
+
+    @Label("Time Remaining")
+    @Timespan(Timespan.MILLISECONDS)
+    public long millisRemaining;
+
+    @Label("Contingency")
+    @Timespan(Timespan.MILLISECONDS)
+    public long contingencyMillis;
+
+    @Label("Quota")
+    @Timespan(Timespan.MILLISECONDS)
+    public long quotaMillis;
+}
@@ -0,0 +1,22 @@
+package mengyaxi.pokersquares.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Strategy generating the candidates of a move.
+ *
+ * @author Meng
+ */
+@Name("mengyaxi.Candidates")
+@Label("Candidate Generation")
+@Category("Poker Squares")
+public final class CandidatesEvent extends jdk.jfr.Event {
+
+    @Label("Empty Cells")
+    public int emptyCells;
+
+    @Label("Candidates")
+    public int candidates;
+}
@@ -0,0 +1,25 @@
+package mengyaxi.pokersquares.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A game, from the init of the player to its last move.
+ *
+ * @author Meng
+ */
+@Name("mengyaxi.Game")
+@Label("Game")
+@Category("Poker Squares")
+public final class GameEvent extends jdk.jfr.Event {
+
+    @Label("Game")
+    public int game;
+
+    @Label("Score")
+    public int score;
+
+    @Label("Searched Moves")
+    public int searchedMoves;
+}
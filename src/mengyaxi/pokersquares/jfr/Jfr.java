@@ -0,0 +1,28 @@
+package mengyaxi.pokersquares.jfr;
+
+/**
+ * Whether the events of this package can be created. The events extend
+ * jdk.jfr.Event, which older virtual machines don't have, so every use of them
+ * is guarded by {@link #AVAILABLE} and never runs there. When no recording is
+ * active a created event costs an allocation the compiler usually removes.
+ *
+ * @author Meng
+ */
+public final class Jfr {
+
+    public static final boolean AVAILABLE = isAvailable();
+
+    private Jfr() {
+    }
+
+    private static boolean isAvailable() {
+        if (Boolean.getBoolean("mengyaxi.jfr.disabled")) {
+            return false;
+        }
+        try {
+            return (Boolean) Class.forName("jdk.jfr.FlightRecorder").getMethod("isAvailable").invoke(null);
+        } catch (final ReflectiveOperationException | LinkageError ex) {
+            return false;
+        }
+    }
+}
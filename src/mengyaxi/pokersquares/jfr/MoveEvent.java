@@ -0,0 +1,39 @@
+package mengyaxi.pokersquares.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A call of getPlay.
+ *
+ * @author Meng
+ */
+@Name("mengyaxi.Move")
+@Label("Move")
+@Category("Poker Squares")
+public final class MoveEvent extends jdk.jfr.Event {
+
+    @Label("Game")
+    public int game;
+
+    @Label("Card")
+    public String card;
+
+    @Label("Empty Cells")
+    public int emptyCells;
+
+    @Label("Candidates")
+    public int candidates;
+
+    @Label("Engine")
+    public String engine;
+
+    @Label("Time Remaining")
+    @Timespan(Timespan.MILLISECONDS)
+    public long millisRemaining;
+
+    @Label("Cell")
+    public int cell;
+}
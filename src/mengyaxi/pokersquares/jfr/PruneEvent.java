@@ -0,0 +1,22 @@
+package mengyaxi.pokersquares.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Candidates left behind and removed from a search.
+ *
+ * @author Meng
+ */
+@Name("mengyaxi.Prune")
+@Label("Candidate Pruning")
+@Category("Poker Squares")
+public final class PruneEvent extends jdk.jfr.Event {
+
+    @Label("Candidates Before")
+    public int before;
+
+    @Label("Candidates After")
+    public int after;
+}
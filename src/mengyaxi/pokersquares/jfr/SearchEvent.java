@@ -0,0 +1,42 @@
+package mengyaxi.pokersquares.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Monte Carlo search of a move.
+ *
+ * @author Meng
+ */
+@Name("mengyaxi.MonteCarlo")
+@Label("Monte Carlo Search")
+@Category("Poker Squares")
+public final class SearchEvent extends jdk.jfr.Event {
+
+    @Label("Empty Cells")
+    public int emptyCells;
+
+    @Label("Candidates")
+    public int candidates;
+
+    @Label("Candidates Left")
+    public int candidatesLeft;
+
+    @Label("Quota")
+    @Timespan(Timespan.MILLISECONDS)
+    public long quotaMillis;
+
+    @Label("Shuffles")
+    public int shuffles;
+
+    @Label("Seeded Shuffles")
+    public int seeded;
+
+    @Label("Horizon")
+    public int horizon;
+
+    @Label("Workers")
+    public int workers;
+}
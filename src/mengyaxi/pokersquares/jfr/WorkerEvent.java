@@ -0,0 +1,28 @@
+package mengyaxi.pokersquares.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The run of a Monte Carlo worker.
+ *
+ * @author Meng
+ */
+@Name("mengyaxi.Worker")
+@Label("Worker Run")
+@Category("Poker Squares")
+public final class WorkerEvent extends jdk.jfr.Event {
+
+    @Label("Empty Cells")
+    public int emptyCells;
+
+    @Label("Partitioned")
+    public boolean partitioned;
+
+    @Label("Shuffles")
+    public int shuffles;
+
+    @Label("Nested Searches")
+    public long nestedSearches;
+}
@@ -0,0 +1,102 @@
+package mengyaxi.util;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative longs that any thread may record into without
+ * locking. Values are counted in buckets of a quarter of a power of two, so
+ * percentiles are within 25% of the recorded values.
+ *
+ * @author Meng
+ */
+public final class ConcurrentHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public ConcurrentHistogram() {
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param value negative values count as 0
+     */
+    public void record(final long value) {
+        final long v = Math.max(value, 0);
+        counts[bucketOf(v)].increment();
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    private static int bucketOf(final long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        final int e = Long.SIZE - 1 - Long.numberOfLeadingZeros(v);
+        return SUB_BUCKETS + (e - SUB_BUCKET_BITS) * SUB_BUCKETS + (int) (v >>> (e - SUB_BUCKET_BITS) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return the largest value of the bucket
+     */
+    private static long upperBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int e = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        final long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (e - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMean() {
+        final long n = count.sum();
+        return n > 0 ? (double) sum.sum() / n : 0.0;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param p in range [0, 1]
+     * @return an upper bound of the value at the percentile, 0 if nothing was
+     * recorded
+     */
+    public long getPercentile(final double p) {
+        final long target = (long) Math.ceil(p * count.sum());
+        long n = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            n += counts[i].sum();
+            if (n >= target && n > 0) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Not atomic with concurrent recording.
+     */
+    public void reset() {
+        for (final LongAdder c : counts) {
+            c.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A run interrupted after a checkpoint and resumed against the same run
+ * played at once.
+ *
+ * @author Meng
+ */
+public final class CheckpointTest {
+
+    private static final long GAMES = 250;
+    private static final long START_SEED = 42;
+    private static final long INTERVAL = 50;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Thrown through PokerSquares.play, which catches the exceptions of the
+     * players, as a crash of the run.
+     */
+    private static final class Crash extends Error {
+    }
+
+    /**
+     * Plays every card at the first empty cell of a walk that depends on the
+     * card, so that the same deal gives the same moves.
+     */
+    private static final class WalkPlayer implements PokerSquaresPlayer {
+
+        private final long crashGame;
+        private final Card[] grid = new Card[PokerSquares.SIZE * PokerSquares.SIZE];
+        long games = 0;
+
+        /**
+         * @param crashGame the game at which to crash, from 1, 0 for none
+         */
+        WalkPlayer(final long crashGame) {
+            this.crashGame = crashGame;
+        }
+
+        @Override
+        public void setPointSystem(final PokerSquaresPointSystem system, final long millis) {
+        }
+
+        @Override
+        public void init() {
+            if (++games == crashGame) {
+                throw new Crash();
+            }
+            Arrays.fill(grid, null);
+        }
+
+        @Override
+        public int[] getPlay(final Card card, final long millisRemaining) {
+            for (int i = card.getCardId() % grid.length;; i = (i + 7) % grid.length) {
+                if (grid[i] == null) {
+                    grid[i] = card;
+                    return new int[]{i / PokerSquares.SIZE, i % PokerSquares.SIZE};
+                }
+            }
+        }
+
+        @Override
+        public String getName() {
+            return "WalkPlayer";
+        }
+    }
+
+    private static ScoreStatistics run(final PokerSquaresPlayer player, final long games, final Path results,
+        final Path checkpoint) throws IOException {
+        final PokerSquares game = new PokerSquares(player, PokerSquaresPointSystem.getAmericanPointSystem());
+        try (ScoreWriter writer = new ScoreWriter(results)) {
+            return game.playStatistics(games, START_SEED, false, writer, new Checkpoint(checkpoint, INTERVAL, ""));
+        }
+    }
+
+    private static byte[] bytes(final ScoreStatistics statistics) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            statistics.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void resumedRunEqualsUninterruptedRun() throws IOException {
+        final Path fullResults = folder.getRoot().toPath().resolve("full.csv");
+        final ScoreStatistics full = run(new WalkPlayer(0), GAMES, fullResults,
+            folder.getRoot().toPath().resolve("full.ckpt"));
+
+        final Path results = folder.getRoot().toPath().resolve("resumed.csv");
+        final Path checkpoint = folder.getRoot().toPath().resolve("resumed.ckpt");
+        final long crashGame = 3 * INTERVAL + INTERVAL / 2;
+        try {
+            run(new WalkPlayer(crashGame), GAMES, results, checkpoint);
+            fail("no crash");
+        } catch (final Crash e) {
+            // the results past the last checkpoint were flushed by the writer on close
+        }
+        final Checkpoint crashed = new Checkpoint(checkpoint, INTERVAL, "");
+        assertTrue(crashed.load());
+        assertEquals(3 * INTERVAL, crashed.getGames());
+        assertTrue(Files.size(results) > crashed.getOutputBytes()); // to be truncated on resuming
+        final WalkPlayer player = new WalkPlayer(0);
+        final ScoreStatistics resumed = run(player, GAMES, results, checkpoint);
+
+        assertEquals(GAMES - 3 * INTERVAL, player.games);
+        assertArrayEquals(bytes(full), bytes(resumed));
+        assertArrayEquals(Files.readAllBytes(fullResults), Files.readAllBytes(results));
+        final Checkpoint saved = new Checkpoint(checkpoint, INTERVAL, "");
+        assertTrue(saved.load());
+        assertEquals(GAMES, saved.getGames());
+        assertEquals(Files.size(results), saved.getOutputBytes());
+        assertArrayEquals(bytes(full), bytes(saved.getStatistics()));
+    }
+
+    @Test
+    public void checkpointOfAnotherConfigurationIsIgnored() throws IOException {
+        final Path results = folder.getRoot().toPath().resolve("results.csv");
+        final Path checkpoint = folder.getRoot().toPath().resolve("results.ckpt");
+        run(new WalkPlayer(0), INTERVAL, results, checkpoint);
+        final Checkpoint other = new Checkpoint(checkpoint, INTERVAL, "");
+        assertFalse(other.load("another configuration"));
+        assertEquals(0, other.getGames());
+        assertEquals(0, other.getStatistics().getCount());
+
+        final WalkPlayer player = new WalkPlayer(0);
+        final ScoreStatistics statistics = run(player, 2 * INTERVAL, results, checkpoint);
+        assertEquals(2 * INTERVAL, player.games);
+        assertEquals(2 * INTERVAL, statistics.getCount());
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+
+/**
+ * Merged statistics against the statistics of the same scores added one by
+ * one.
+ *
+ * @author Meng
+ */
+public final class ScoreStatisticsTest {
+
+    private static final int TRIALS = 200;
+    private static final double EPSILON = 1e-9;
+
+    private static void assertSameStatistics(final ScoreStatistics expected, final ScoreStatistics actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getSum(), actual.getSum());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getMean(), actual.getMean(), EPSILON * Math.max(1, Math.abs(expected.getMean())));
+        assertEquals(expected.getStandardDeviation(), actual.getStandardDeviation(),
+            EPSILON * Math.max(1, expected.getStandardDeviation()));
+        assertEquals(expected.hasConfidence95(), actual.hasConfidence95());
+        if (expected.hasConfidence95()) {
+            assertEquals(expected.getConfidence95(), actual.getConfidence95(), EPSILON * Math.max(1, expected.getConfidence95()));
+        }
+        for (int score = -1300; score <= 1300; score += ScoreStatistics.BUCKET_WIDTH) {
+            assertEquals(expected.getBucket(score), actual.getBucket(score));
+        }
+        for (int id = 0; id < PokerHand.NUM_HANDS; ++id) {
+            assertEquals(expected.getHandFrequency(id), actual.getHandFrequency(id), 0.0);
+        }
+    }
+
+    @Test
+    public void mergeEqualsSequentialAccumulation() {
+        final Random random = new Random(1);
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            final ScoreStatistics sequential = new ScoreStatistics();
+            final List<ScoreStatistics> parts = new ArrayList<>();
+            final int numParts = 1 + random.nextInt(6);
+            for (int i = 0; i < numParts; ++i) {
+                parts.add(new ScoreStatistics());
+            }
+            final int n = random.nextInt(500);
+            final int offset = random.nextBoolean() ? 0 : 100000; // a large mean, where a naive variance loses digits
+            for (int i = 0; i < n; ++i) {
+                final int score = offset + (int) Math.round(random.nextGaussian() * 30) + 100;
+                final ScoreStatistics part = parts.get(Math.min(numParts - 1, i * numParts / Math.max(n, 1)));
+                sequential.add(score);
+                part.add(score);
+                if (random.nextBoolean()) {
+                    final int[] handIds = new int[2 * PokerSquares.SIZE];
+                    for (int j = 0; j < handIds.length; ++j) {
+                        handIds[j] = random.nextInt(PokerHand.NUM_HANDS);
+                    }
+                    sequential.addHands(handIds);
+                    part.addHands(handIds);
+                }
+            }
+            final ScoreStatistics merged = new ScoreStatistics();
+            for (final ScoreStatistics part : parts) {
+                merged.merge(part);
+            }
+            assertSameStatistics(sequential, merged);
+        }
+    }
+
+    @Test
+    public void mergeOfEmptyStatisticsChangesNothing() {
+        final ScoreStatistics statistics = new ScoreStatistics();
+        statistics.merge(new ScoreStatistics());
+        assertEquals(0, statistics.getCount());
+        assertFalse(statistics.hasConfidence95());
+        statistics.add(42);
+        final ScoreStatistics expected = new ScoreStatistics();
+        expected.add(42);
+        statistics.merge(new ScoreStatistics());
+        assertSameStatistics(expected, statistics);
+        final ScoreStatistics empty = new ScoreStatistics();
+        empty.merge(statistics);
+        assertSameStatistics(expected, empty);
+        assertFalse(empty.hasConfidence95());
+    }
+}
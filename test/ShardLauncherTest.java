@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Games played in shards by child JVMs against the same games played by one.
+ *
+ * @author Meng
+ */
+public final class ShardLauncherTest {
+
+    private static final long GAMES = 4;
+    private static final long START_SEED = 7;
+    // cold, deterministic and as fast as it gets, so that the children play the same moves quickly
+    private static final List<String> OPTIONS = Arrays.asList("-c", "-r=1");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ScoreStatistics run(final Path directory, final int processes, final int shards)
+        throws IOException, InterruptedException {
+        final ShardLauncher launcher = new ShardLauncher(processes, 1, directory, Collections.emptyList(),
+            Collections.emptyList(), OPTIONS);
+        final ScoreStatistics statistics = launcher.run(GAMES, START_SEED, shards);
+        assertNotNull("a shard failed, see the logs in " + directory, statistics);
+        return statistics;
+    }
+
+    /**
+     * @return the seed, score and hands of every game of the shards, without
+     * the running statistics
+     */
+    private static List<String> games(final Path directory, final int shards) throws IOException {
+        final List<String> games = new ArrayList<>();
+        for (int i = 0; i < shards; ++i) {
+            final List<String> lines = Files.readAllLines(directory.resolve("shard-" + i + ".csv"));
+            for (final String line : lines.subList(1, lines.size())) {
+                final String[] fields = line.split(",", -1);
+                games.add(fields[1] + "," + fields[2] + "," + String.join(",", Arrays.asList(fields).subList(5, fields.length)));
+            }
+        }
+        return games;
+    }
+
+    @Test
+    public void mergedShardsEqualASingleRun() throws IOException, InterruptedException {
+        final Path single = folder.newFolder("single").toPath();
+        final Path sharded = folder.newFolder("sharded").toPath();
+        final ScoreStatistics expected = run(single, 1, 1);
+        final ScoreStatistics actual = run(sharded, 2, 3);
+
+        assertEquals(games(single, 1), games(sharded, 3));
+        assertEquals(GAMES, actual.getCount());
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getSum(), actual.getSum());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getMean(), actual.getMean(), 1e-9);
+        assertEquals(expected.getStandardDeviation(), actual.getStandardDeviation(), 1e-9);
+        for (int id = 0; id < PokerHand.NUM_HANDS; ++id) {
+            assertEquals(expected.getHandFrequency(id), actual.getHandFrequency(id), 1e-12);
+        }
+    }
+}
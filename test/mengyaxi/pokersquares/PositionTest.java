@@ -0,0 +1,134 @@
+package mengyaxi.pokersquares;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import mengyaxi.pokersquares.board.Board;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Round trips of random positions through their encodings and a board.
+ *
+ * @author Meng
+ */
+public final class PositionTest {
+
+    private static final int TRIALS = 1000;
+
+    private final Random random = new Random(1);
+    private final List<Card> cards = new ArrayList<>();
+    private final List<Board.Cell> cells = new ArrayList<>();
+
+    public PositionTest() {
+        for (int id = 0; id < Card.NUM_CARDS; ++id) {
+            cards.add(Card.getCardById(id));
+        }
+        for (int cell = 0; cell < Board.NUMBER_OF_CELLS; ++cell) {
+            cells.add(new Board.Cell(cell / Board.SIZE, cell % Board.SIZE));
+        }
+    }
+
+    /**
+     * Deal the given number of random cards to random cells.
+     */
+    private void deal(final Board board, final DeckTracker deck, final int numberOfCards) {
+        board.clear();
+        deck.clear();
+        Collections.shuffle(cards, random);
+        Collections.shuffle(cells, random);
+        for (int i = 0; i < numberOfCards; ++i) {
+            board.putCard(cards.get(i), cells.get(i).row, cells.get(i).col);
+            deck.deal(cards.get(i));
+        }
+    }
+
+    private static void assertSamePlays(final Board expected, final Board actual) {
+        assertEquals(expected.numberOfCards(), actual.numberOfCards());
+        for (int i = 0; i < expected.numberOfCards(); ++i) {
+            assertSame(expected.getPlay(i), actual.getPlay(i));
+        }
+    }
+
+    @Test
+    public void restoreGivesTheSameBoardAndDeck() {
+        final Board board = new Board();
+        final DeckTracker deck = new DeckTracker();
+        final Board restored = new Board();
+        final DeckTracker restoredDeck = new DeckTracker();
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            deal(board, deck, random.nextInt(Board.NUMBER_OF_CELLS + 1));
+            final Position position = Position.of(board, deck);
+            position.restore(restored, restoredDeck);
+            assertSamePlays(board, restored);
+            assertEquals(deck.toBits(), restoredDeck.toBits());
+            assertEquals(deck.getNumberOfCards(), restoredDeck.getNumberOfCards());
+            for (int row = 0; row < Board.SIZE; ++row) {
+                for (int col = 0; col < Board.SIZE; ++col) {
+                    assertSame(board.getRow(row).getCard(col), position.getCard(row, col));
+                }
+            }
+            assertEquals(position, Position.of(restored, restoredDeck));
+        }
+    }
+
+    @Test
+    public void encodingRoundTrips() {
+        final Board board = new Board();
+        final DeckTracker deck = new DeckTracker();
+        final Board restored = new Board();
+        final DeckTracker restoredDeck = new DeckTracker();
+        final ByteBuffer buffer = ByteBuffer.allocate(Position.CELLS_SIZE + 1 + Board.NUMBER_OF_CELLS * Short.BYTES);
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            deal(board, deck, random.nextInt(Board.NUMBER_OF_CELLS + 1));
+            final Position position = Position.of(board, deck);
+            buffer.clear();
+            position.writeTo(buffer);
+            assertEquals(position.encodedSize(), buffer.position());
+            buffer.flip();
+            final Position read = Position.readFrom(buffer);
+            assertEquals(position, read);
+            assertEquals(position.key(), read.key());
+            read.restore(restored, restoredDeck);
+            assertSamePlays(board, restored); // the order of the plays is kept
+
+            buffer.clear();
+            position.writeCellsTo(buffer);
+            assertEquals(Position.CELLS_SIZE, buffer.position());
+            final Position cellsRead = Position.readCellsFrom(buffer, 0);
+            assertEquals(position, cellsRead);
+            assertEquals(position.key(), cellsRead.key());
+            assertEquals(position.numberOfCards(), cellsRead.numberOfCards());
+        }
+    }
+
+    @Test
+    public void keyIgnoresTheOrderOfPlays() {
+        final Board board = new Board();
+        final DeckTracker deck = new DeckTracker();
+        final Board reordered = new Board();
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            deal(board, deck, 2 + random.nextInt(Board.NUMBER_OF_CELLS - 1));
+            reordered.clear();
+            final List<Board.Play> plays = new ArrayList<>();
+            for (int i = 0; i < board.numberOfCards(); ++i) {
+                plays.add(board.getPlay(i));
+            }
+            Collections.shuffle(plays, random);
+            for (final Board.Play p : plays) {
+                reordered.putCard(p.card, p.row, p.col);
+            }
+            final Position position = Position.of(board, deck);
+            final Position other = Position.of(reordered, deck);
+            assertEquals(position, other);
+            assertEquals(position.key(), other.key());
+            final Board.Play last = board.retractLastPlay();
+            deck.putBack(last.card);
+            assertNotEquals(position, Position.of(board, deck));
+        }
+    }
+}
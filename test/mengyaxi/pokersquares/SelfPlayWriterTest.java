@@ -0,0 +1,107 @@
+package mengyaxi.pokersquares;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import mengyaxi.pokersquares.board.Board;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Self-play files cut short by a crash, reopened and appended to.
+ *
+ * @author Meng
+ */
+public final class SelfPlayWriterTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(1);
+
+    /**
+     * Record a random game whose every move has a single candidate.
+     *
+     * @return the positions before the moves
+     */
+    private List<Position> play(final SelfPlayWriter writer, final int id) throws IOException {
+        final List<Card> cards = new ArrayList<>();
+        for (int i = 0; i < Card.NUM_CARDS; ++i) {
+            cards.add(Card.getCardById(i));
+        }
+        Collections.shuffle(cards, random);
+        final List<Integer> cells = new ArrayList<>();
+        for (int cell = 0; cell < Board.NUMBER_OF_CELLS; ++cell) {
+            cells.add(cell);
+        }
+        Collections.shuffle(cells, random);
+        final Board board = new Board();
+        final DeckTracker deck = new DeckTracker();
+        final SelfPlayWriter.Game game = new SelfPlayWriter.Game();
+        game.clear(id);
+        final List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < Board.NUMBER_OF_CELLS; ++i) {
+            final Card card = cards.get(i);
+            final CellCandidate winner = new CellCandidate(cells.get(i) / Board.SIZE, cells.get(i) % Board.SIZE);
+            final Position position = Position.of(board, deck);
+            positions.add(position);
+            game.add(position, card, Collections.singletonList(winner), winner, null);
+            deck.deal(card);
+            board.putCard(card, winner.row, winner.col);
+        }
+        game.finish(board);
+        writer.write(game);
+        return positions;
+    }
+
+    private static void assertRecords(final Path path, final List<Integer> games, final List<Position> positions)
+        throws IOException {
+        try (SelfPlayReader reader = new SelfPlayReader(path)) {
+            assertEquals(positions.size(), reader.size());
+            for (int i = 0; i < positions.size(); ++i) {
+                assertEquals(games.get(i).intValue(), reader.getGame(i));
+                assertEquals(positions.get(i).numberOfCards(), reader.getMove(i));
+                assertEquals(positions.get(i), reader.getPosition(i));
+            }
+        }
+    }
+
+    private void play(final SelfPlayWriter writer, final int id, final List<Integer> games,
+        final List<Position> positions) throws IOException {
+        for (final Position position : play(writer, id)) {
+            games.add(id);
+            positions.add(position);
+        }
+    }
+
+    @Test
+    public void appendingAfterAPartialRecordKeepsTheRecordsAligned() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("self-play.psq");
+        final List<Integer> games = new ArrayList<>();
+        final List<Position> positions = new ArrayList<>();
+        try (SelfPlayWriter writer = new SelfPlayWriter(path)) {
+            play(writer, 0, games, positions);
+            play(writer, 1, games, positions);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(path) - SelfPlayWriter.RECORD_SIZE * 2 / 3); // a crash in the last record
+        }
+        games.remove(games.size() - 1);
+        positions.remove(positions.size() - 1);
+        assertRecords(path, games, positions);
+
+        try (SelfPlayWriter writer = new SelfPlayWriter(path)) {
+            play(writer, 2, games, positions);
+        }
+        assertEquals(SelfPlayWriter.HEADER_SIZE + (long) positions.size() * SelfPlayWriter.RECORD_SIZE, Files.size(path));
+        assertRecords(path, games, positions);
+    }
+}
@@ -0,0 +1,216 @@
+package mengyaxi.pokersquares.board;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import mengyaxi.pokersquares.Card;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks the upper bounds of the lines and of the board against every
+ * completion of small random positions, dealt from a few suits and ranks so
+ * that straights, flushes and full houses are likely.
+ *
+ * @author Meng
+ */
+public final class RowColRecordTest {
+
+    private static final int TRIALS = 3000;
+    private static final int DECK_CARDS = 10;
+
+    /**
+     * @return the poker hand id of five cards, computed independently of
+     * RowColRecord
+     */
+    private static int handId(final List<Card> cards) {
+        final int[] ranks = new int[Card.NUM_RANKS];
+        boolean flush = true;
+        for (final Card c : cards) {
+            ++ranks[c.rank];
+            flush &= c.suit == cards.get(0).suit;
+        }
+        final List<Integer> counts = new ArrayList<>();
+        for (final int n : ranks) {
+            if (n > 0) {
+                counts.add(n);
+            }
+        }
+        Collections.sort(counts, Collections.reverseOrder());
+        final boolean royal = ranks[0] == 1 && ranks[9] == 1 && ranks[10] == 1 && ranks[11] == 1 && ranks[12] == 1;
+        boolean straight = royal;
+        for (int start = 0; start + RowCol.SIZE <= Card.NUM_RANKS; ++start) {
+            boolean run = true;
+            for (int i = 0; i < RowCol.SIZE; ++i) {
+                run &= ranks[start + i] == 1;
+            }
+            straight |= run;
+        }
+        if (straight && flush) {
+            return royal ? 9 : 8;
+        }
+        if (counts.get(0) == 4) {
+            return 7;
+        }
+        if (counts.get(0) == 3 && counts.get(1) == 2) {
+            return 6;
+        }
+        if (flush) {
+            return 5;
+        }
+        if (straight) {
+            return 4;
+        }
+        if (counts.get(0) == 3) {
+            return 3;
+        }
+        return counts.get(0) == 2 ? (counts.get(1) == 2 ? 2 : 1) : 0;
+    }
+
+    /**
+     * @return a few cards of two suits around a random rank, and a few
+     * others
+     */
+    private static List<Card> pool(final Random random) {
+        final List<Card> cards = new ArrayList<>();
+        final int start = random.nextInt(Card.NUM_RANKS);
+        final int suit = random.nextInt(Card.NUM_SUITS);
+        final int other = (suit + 1 + random.nextInt(Card.NUM_SUITS - 1)) % Card.NUM_SUITS;
+        for (int i = 0; i < 7; ++i) {
+            final int rank = (start + i) % Card.NUM_RANKS;
+            cards.add(Card.getCardById(suit * Card.NUM_RANKS + rank));
+            if (random.nextBoolean()) {
+                cards.add(Card.getCardById(other * Card.NUM_RANKS + rank));
+            }
+        }
+        for (int i = 0; i < 4; ++i) {
+            final Card c = Card.getCardById(random.nextInt(Card.NUM_CARDS));
+            if (!cards.contains(c)) {
+                cards.add(c);
+            }
+        }
+        Collections.shuffle(cards, random);
+        return cards;
+    }
+
+    private static long bits(final List<Card> cards) {
+        long deck = 0;
+        for (final Card c : cards) {
+            deck |= 1L << c.id;
+        }
+        return deck;
+    }
+
+    /**
+     * @return the best score of the hands the line completes to with the
+     * given cards, -1 if there are too few of them
+     */
+    private static int bestCompletion(final RowColRecord line, final List<Card> deck, final int from, final int pos) {
+        if (pos == RowCol.SIZE) {
+            final int id = handId(line.getCards());
+            assertEquals("hand of " + line.getCards(), id, line.getPokerHandId());
+            return Board.POINT_SYSTEM[id];
+        }
+        if (!line.isEmpty(pos)) {
+            return bestCompletion(line, deck, from, pos + 1);
+        }
+        int best = -1;
+        for (int i = from; i < deck.size(); ++i) {
+            line.putCard(deck.get(i), pos);
+            best = Math.max(best, bestCompletion(line, deck, i + 1, pos + 1));
+            line.removeCard(pos);
+        }
+        return best;
+    }
+
+    @Test
+    public void lineBoundIsAdmissible() {
+        final Random random = new Random(1);
+        final RowColRecord line = new RowColRecord(0);
+        int exact = 0;
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            final List<Card> cards = pool(random);
+            line.clear();
+            final int numberOfCards = random.nextInt(RowCol.SIZE);
+            final List<Integer> positions = new ArrayList<>();
+            for (int pos = 0; pos < RowCol.SIZE; ++pos) {
+                positions.add(pos);
+            }
+            Collections.shuffle(positions, random);
+            for (int i = 0; i < numberOfCards; ++i) {
+                line.putCard(cards.get(i), positions.get(i));
+            }
+            final List<Card> deck = cards.subList(numberOfCards, Math.min(cards.size(), numberOfCards + DECK_CARDS));
+            final int bound = Board.POINT_SYSTEM[line.getBestPossibleHandId(bits(deck))];
+            final int best = bestCompletion(line, deck, 0, 0);
+            assertTrue("bound " + bound + " below " + best + " for " + line.getCards() + " with " + deck, best <= bound);
+            if (best == bound) {
+                ++exact;
+            }
+        }
+        assertTrue("the bound is rarely reached: " + exact, exact > TRIALS / 2);
+    }
+
+    @Test
+    public void royalFlushIsRecognized() {
+        final RowColRecord line = new RowColRecord(0);
+        line.clear();
+        final int suit = 3;
+        for (int rank = 9; rank < Card.NUM_RANKS; ++rank) {
+            line.putCard(Card.getCardById(suit * Card.NUM_RANKS + rank), rank - 9);
+        }
+        final Card ace = Card.getCardById(suit * Card.NUM_RANKS);
+        assertEquals(9, line.getBestPossibleHandId(1L << ace.id));
+        line.putCard(ace, RowCol.SIZE - 1);
+        assertEquals(9, line.getPokerHandId());
+        line.removeCard(0);
+        line.putCard(Card.getCardById(suit * Card.NUM_RANKS + 8), 0);
+        assertEquals(5, line.getPokerHandId()); // 9, J, Q, K and an ace are no straight
+    }
+
+    @Test
+    public void boardBoundIsAdmissible() {
+        final Random random = new Random(2);
+        final Board board = new Board();
+        final List<Card> cards = new ArrayList<>();
+        for (int id = 0; id < Card.NUM_CARDS; ++id) {
+            cards.add(Card.getCardById(id));
+        }
+        for (int trial = 0; trial < TRIALS / 10; ++trial) {
+            board.clear();
+            Collections.shuffle(cards, random);
+            final int empty = 1 + random.nextInt(3);
+            final List<Board.Cell> cells = new ArrayList<>();
+            for (int cell = 0; cell < Board.NUMBER_OF_CELLS; ++cell) {
+                cells.add(new Board.Cell(cell / Board.SIZE, cell % Board.SIZE));
+            }
+            Collections.shuffle(cells, random);
+            int next = 0;
+            for (final Board.Cell cell : cells.subList(empty, cells.size())) {
+                board.putCard(cards.get(next++), cell.row, cell.col);
+            }
+            final List<Card> deck = new ArrayList<>(cards.subList(next, next + empty + 2));
+            final int bound = board.getPokerHandScoreUpperBound(bits(deck));
+            final int best = bestCompletion(board, cells.subList(0, empty), deck);
+            assertTrue("bound " + bound + " below " + best, best <= bound);
+        }
+    }
+
+    private static int bestCompletion(final Board board, final List<Board.Cell> empty, final List<Card> deck) {
+        if (empty.isEmpty()) {
+            return board.getPokerHandScore();
+        }
+        final Board.Cell cell = empty.get(0);
+        int best = 0;
+        for (int i = 0; i < deck.size(); ++i) {
+            final Card c = deck.remove(i);
+            board.putCard(c, cell.row, cell.col);
+            best = Math.max(best, bestCompletion(board, empty.subList(1, empty.size()), deck));
+            board.retractLastPlay();
+            deck.add(i, c);
+        }
+        return best;
+    }
+}